@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An application-defined msgpack extension value: a signed type code and
+ * an opaque payload.  Extensions are passed through without interpretation.
+ */
+public class MsgPackExtension {
+	private final byte type;
+	private final ByteBuffer data;
+
+	/**
+	 * @param type extension type code; negative values are reserved by the
+	 * msgpack specification
+	 * @param data payload, between position and limit
+	 */
+	public MsgPackExtension(byte type, ByteBuffer data) {
+		this.type = type;
+		this.data = data;
+	}
+
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return the payload.  For unpacked values this is a read-only slice of
+	 * the packed data.
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	@Override
+	public String toString() {
+		return "MsgPackExtension(" + type + ", " + data.remaining() + " bytes)";
+	}
+}
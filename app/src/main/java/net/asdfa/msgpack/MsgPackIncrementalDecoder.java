@@ -0,0 +1,420 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.asdfa.msgpack.MsgPack.*;
+
+/**
+ * Resumable msgpack decoder.
+ *
+ * Input can be fed in chunks of any size, split at any byte, as it arrives.
+ * The decoder keeps its position inside the value being decoded between
+ * calls, so a large value is built up while the rest of it is still in
+ * flight and the caller only needs a buffer big enough for one chunk.
+ *
+ * Values are returned with the same type mapping as MsgPack.unpack().
+ * Lengths are trusted unless setLimit() bounds the input, so callers
+ * reading from the network should set a limit, such as the size of the
+ * frame the value arrived in.
+ */
+public class MsgPackIncrementalDecoder {
+	private static final int STATE_TYPE = 0;	//waiting for a type byte
+	private static final int STATE_HEADER = 1;	//reading the fixed-size fields after it
+	private static final int STATE_PAYLOAD = 2;	//reading raw, bin or ext bytes
+
+	//every element takes at least one byte, so don't trust size for preallocation
+	private static final int MAX_PREALLOCATE = 16;
+
+	private static final class Container {
+		final List<Object> list;
+		final Map<Object, Object> map;
+		int remaining;	//elements, or map entries, still to come
+		Object key;
+		boolean haveKey;
+
+		Container(List<Object> list, Map<Object, Object> map, int remaining) {
+			this.list = list;
+			this.map = map;
+			this.remaining = remaining;
+		}
+	}
+
+	private final int options;
+	private final StringCache strings;
+	private final ByteBuffer header = ByteBuffer.allocate(8);
+	private final ArrayList<Container> stack = new ArrayList<Container>();
+
+	private int state = STATE_TYPE;
+	private int type;
+	private byte extensionType;
+	private byte[] payload;
+	private int payloadFilled;
+	private Object value;
+	private boolean done;
+	private long available = Long.MAX_VALUE;	//input left for the current value
+
+	public MsgPackIncrementalDecoder(int options) {
+		this(options, null);
+	}
+
+	public MsgPackIncrementalDecoder(int options, StringCache strings) {
+		this.options = options;
+		this.strings = strings;
+	}
+
+	/**
+	 * Bounds the input the next value may take.  A length or element count
+	 * that needs more input than is left is rejected before anything is
+	 * allocated for it.  The bound is lifted by getValue() and reset().
+	 */
+	public void setLimit(long bytes) {
+		available = bytes;
+	}
+
+	/**
+	 * Consumes input from the position of data up to the end of the next
+	 * complete value, or the limit of data if no value completes.
+	 * @return true if a value is complete and can be fetched with
+	 * getValue()
+	 * @throws IllegalStateException If the previous value has not been
+	 * fetched.
+	 */
+	public boolean feed(ByteBuffer data) throws InvalidMsgPackDataException {
+		if (done)
+			throw new IllegalStateException("Previous value has not been fetched");
+		while (data.hasRemaining()) {
+			switch (state) {
+				case STATE_TYPE:
+					consume(1);
+					if (startValue(data.get() & MAX_8BIT))
+						return true;
+					break;
+				case STATE_HEADER:
+					consume(Math.min(header.remaining(), data.remaining()));
+					while (header.hasRemaining() && data.hasRemaining())
+						header.put(data.get());
+					if (!header.hasRemaining()) {
+						state = STATE_TYPE;
+						header.flip();
+						if (finishHeader())
+							return true;
+					}
+					break;
+				case STATE_PAYLOAD: {
+					int count = Math.min(payload.length - payloadFilled, data.remaining());
+					consume(count);
+					data.get(payload, payloadFilled, count);
+					payloadFilled += count;
+					if (payloadFilled == payload.length) {
+						state = STATE_TYPE;
+						if (finishPayload())
+							return true;
+					}
+					break;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the value completed by the last call to feed()
+	 */
+	public Object getValue() {
+		if (!done)
+			throw new IllegalStateException("No complete value");
+		Object ret = value;
+		value = null;
+		done = false;
+		available = Long.MAX_VALUE;
+		return ret;
+	}
+
+	/**
+	 * @return true if the decoder holds part of a value
+	 */
+	public boolean isPartial() {
+		return state != STATE_TYPE || !stack.isEmpty();
+	}
+
+	/**
+	 * Discards any partially decoded value.
+	 */
+	public void reset() {
+		state = STATE_TYPE;
+		stack.clear();
+		payload = null;
+		value = null;
+		done = false;
+		available = Long.MAX_VALUE;
+	}
+
+	private void consume(int count) throws InvalidMsgPackDataException {
+		if (count > available) throw new InvalidMsgPackDataException("Input longer than its limit");
+		available -= count;
+	}
+
+	private boolean startValue(int value) throws InvalidMsgPackDataException {
+		type = value;
+		switch ((byte)value) {
+			case MP_NULL:
+				return complete(null);
+			case MP_FALSE:
+				return complete(false);
+			case MP_TRUE:
+				return complete(true);
+			case MP_UINT8:
+			case MP_INT8:
+			case MP_STR8:
+			case MP_BIN8:
+			case MP_FIXEXT1:
+			case MP_FIXEXT2:
+			case MP_FIXEXT4:
+			case MP_FIXEXT8:
+			case MP_FIXEXT16:
+				return readHeader(1);
+			case MP_UINT16:
+			case MP_INT16:
+			case MP_RAW16:
+			case MP_BIN16:
+			case MP_ARRAY16:
+			case MP_MAP16:
+			case MP_EXT8:
+				return readHeader(2);
+			case MP_EXT16:
+				return readHeader(3);
+			case MP_UINT32:
+			case MP_INT32:
+			case MP_FLOAT:
+			case MP_RAW32:
+			case MP_BIN32:
+			case MP_ARRAY32:
+			case MP_MAP32:
+				return readHeader(4);
+			case MP_EXT32:
+				return readHeader(5);
+			case MP_UINT64:
+			case MP_INT64:
+			case MP_DOUBLE:
+				return readHeader(8);
+		}
+
+		if (value >= MP_NEGATIVE_FIXNUM_INT && value <= MP_NEGATIVE_FIXNUM_INT + MAX_5BIT) {
+			return complete((byte)value);
+		} else if (value >= MP_FIXARRAY_INT && value <= MP_FIXARRAY_INT + MAX_4BIT) {
+			return startContainer(value - MP_FIXARRAY_INT, false);
+		} else if (value >= MP_FIXMAP_INT && value <= MP_FIXMAP_INT + MAX_4BIT) {
+			return startContainer(value - MP_FIXMAP_INT, true);
+		} else if (value >= MP_FIXRAW_INT && value <= MP_FIXRAW_INT + MAX_5BIT) {
+			return startPayload(value - MP_FIXRAW_INT);
+		} else if (value <= MAX_7BIT) {//MP_FIXNUM - the value is value as an int
+			return complete(value);
+		} else {
+			throw new InvalidMsgPackDataException("Input contains invalid type value");
+		}
+	}
+
+	private boolean readHeader(int size) {
+		header.clear();
+		header.limit(size);
+		state = STATE_HEADER;
+		return false;
+	}
+
+	private boolean finishHeader() throws InvalidMsgPackDataException {
+		switch ((byte)type) {
+			case MP_FLOAT:
+				return complete(header.getFloat());
+			case MP_DOUBLE:
+				return complete(header.getDouble());
+			case MP_UINT8:
+				return complete(header.get() & MAX_8BIT);//return as int
+			case MP_UINT16:
+				return complete(header.getShort() & MAX_16BIT);//treat as unsigned, return int
+			case MP_UINT32:
+				return complete(header.getInt() & MAX_32BIT);//treat as unsigned, return long
+			case MP_UINT64: {
+				long v = header.getLong();
+				if (v >= 0) return complete(v);
+				//we don't have unsigned longs
+				byte[] bytes = new byte[8];
+				header.rewind();
+				header.get(bytes);
+				return complete(new BigInteger(1, bytes));
+			}
+			case MP_INT8:
+				return complete(header.get());
+			case MP_INT16:
+				return complete(header.getShort());
+			case MP_INT32:
+				return complete(header.getInt());
+			case MP_INT64:
+				return complete(header.getLong());
+			case MP_ARRAY16:
+				return startContainer(header.getShort() & MAX_16BIT, false);
+			case MP_ARRAY32:
+				return startContainer(header.getInt(), false);
+			case MP_MAP16:
+				return startContainer(header.getShort() & MAX_16BIT, true);
+			case MP_MAP32:
+				return startContainer(header.getInt(), true);
+			case MP_STR8:
+			case MP_BIN8:
+				return startPayload(header.get() & MAX_8BIT);
+			case MP_RAW16:
+			case MP_BIN16:
+				return startPayload(header.getShort() & MAX_16BIT);
+			case MP_RAW32:
+			case MP_BIN32:
+				return startPayload(header.getInt());
+			case MP_FIXEXT1:
+				extensionType = header.get();
+				return startPayload(1);
+			case MP_FIXEXT2:
+				extensionType = header.get();
+				return startPayload(2);
+			case MP_FIXEXT4:
+				extensionType = header.get();
+				return startPayload(4);
+			case MP_FIXEXT8:
+				extensionType = header.get();
+				return startPayload(8);
+			case MP_FIXEXT16:
+				extensionType = header.get();
+				return startPayload(16);
+			case MP_EXT8: {
+				int size = header.get() & MAX_8BIT;
+				extensionType = header.get();
+				return startPayload(size);
+			}
+			case MP_EXT16: {
+				int size = header.getShort() & MAX_16BIT;
+				extensionType = header.get();
+				return startPayload(size);
+			}
+			case MP_EXT32: {
+				int size = header.getInt();
+				extensionType = header.get();
+				return startPayload(size);
+			}
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private boolean startContainer(int size, boolean isMap) throws InvalidMsgPackDataException {
+		if (size < 0) throw new InvalidMsgPackDataException((isMap ? "Map" : "Array") + " to unpack too large for Java (more than 2^31 elements)!");
+		//every element takes at least one byte, every map entry two
+		if ((isMap ? 2L : 1L) * size > available) throw new InvalidMsgPackDataException((isMap ? "Map" : "Array") + " to unpack longer than the input left");
+		int initial = Math.min(size, MAX_PREALLOCATE);
+		Container container = isMap ?
+				new Container(null, new HashMap<Object, Object>(initial), size) :
+				new Container(new ArrayList<Object>(initial), null, size);
+		if (size == 0)
+			return complete(isMap ? container.map : container.list);
+		stack.add(container);
+		return false;
+	}
+
+	private boolean startPayload(int size) throws InvalidMsgPackDataException {
+		if (size < 0) throw new InvalidMsgPackDataException("byte[] to unpack too large for Java (more than 2^31 elements)!");
+		if (size > available) throw new InvalidMsgPackDataException("byte[] to unpack longer than the input left");
+		payload = new byte[size];
+		payloadFilled = 0;
+		if (size == 0)
+			return finishPayload();
+		state = STATE_PAYLOAD;
+		return false;
+	}
+
+	private boolean finishPayload() throws InvalidMsgPackDataException {
+		byte[] data = payload;
+		payload = null;
+		switch ((byte)type) {
+			case MP_BIN8:
+			case MP_BIN16:
+			case MP_BIN32:
+				//binary data is never decoded as text
+				return complete(ByteBuffer.wrap(data).asReadOnlyBuffer());
+			case MP_FIXEXT1:
+			case MP_FIXEXT2:
+			case MP_FIXEXT4:
+			case MP_FIXEXT8:
+			case MP_FIXEXT16:
+			case MP_EXT8:
+			case MP_EXT16:
+			case MP_EXT32:
+				return complete(new MsgPackExtension(extensionType, ByteBuffer.wrap(data).asReadOnlyBuffer()));
+		}
+
+		if ((options & UNPACK_RAW_AS_BYTE_BUFFER) != 0) {
+			return complete(ByteBuffer.wrap(data).asReadOnlyBuffer());
+		} else if ((options & UNPACK_RAW_AS_STRING) != 0) {
+			if (strings != null && strings.accepts(data.length))
+				return complete(strings.get(ByteBuffer.wrap(data), 0, data.length));
+			return complete(new String(data, UTF8));
+		} else {
+			return complete(data);
+		}
+	}
+
+	// Adds a finished value to the enclosing container, finishing the
+	// containers it completes in turn.
+	private boolean complete(Object item) {
+		while (!stack.isEmpty()) {
+			Container container = stack.get(stack.size() - 1);
+			if (container.map != null) {
+				if (!container.haveKey) {
+					container.key = item;
+					container.haveKey = true;
+					return false;
+				}
+				container.map.put(container.key, item);
+				container.key = null;
+				container.haveKey = false;
+			} else {
+				container.list.add(item);
+			}
+			if (--container.remaining > 0)
+				return false;
+			stack.remove(stack.size() - 1);
+			item = container.map != null ? container.map : container.list;
+		}
+		value = item;
+		done = true;
+		return true;
+	}
+}
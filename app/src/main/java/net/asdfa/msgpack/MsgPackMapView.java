@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+import static net.asdfa.msgpack.MsgPack.*;
+
+/**
+ * Random-access view of a packed msgpack map.
+ *
+ * Construction makes one pass over the map to check that it is well-formed
+ * and to record where each key and value starts.  Nothing is decoded until
+ * a value is asked for, so values that are never looked up cost only the
+ * validation pass.  Keys are compared against the packed bytes without
+ * being decoded; entries whose key is not a str can't be looked up.
+ *
+ * The view shares the buffer's content, which must not change while the
+ * view is in use.  If a key appears more than once, the last entry wins.
+ */
+public class MsgPackMapView {
+	// Per entry: key payload offset (-1 for non-str keys), key payload
+	// length, value offset
+	private static final int STRIDE = 3;
+
+	private final ByteBuffer buf;
+	private final MsgPackReader in;
+	private final int[] index;
+	private final int size;
+
+	public MsgPackMapView(ByteBuffer data) throws InvalidMsgPackDataException {
+		this(data, null);
+	}
+
+	/**
+	 * @param strings cache used when decoding strings, or null
+	 */
+	public MsgPackMapView(ByteBuffer data, StringCache strings) throws InvalidMsgPackDataException {
+		buf = data;
+		in = new MsgPackReader(data, strings);
+		size = in.readMapHeader();
+		//every entry takes at least two bytes
+		if (size > (data.limit() - in.position()) / 2)
+			throw new InvalidMsgPackDataException("Map size exceeds available data");
+		index = new int[size * STRIDE];
+		for (int i = 0; i < size; i++) {
+			int offset = i * STRIDE;
+			if (in.nextType() == MsgPackReader.TYPE_RAW) {
+				int length = in.skipString();
+				index[offset] = in.position() - length;
+				index[offset + 1] = length;
+			} else {
+				in.skipValue();
+				index[offset] = -1;
+			}
+			index[offset + 2] = in.position();
+			in.skipValue();
+		}
+	}
+
+	/**
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(String key) {
+		return find(key) != -1;
+	}
+
+	/**
+	 * Positions a reader at the value for key.  The reader is shared by
+	 * all calls, and is only valid until the next one.
+	 * @return the reader, or null if the key is not present
+	 */
+	public MsgPackReader reader(String key) {
+		int offset = find(key);
+		if (offset == -1)
+			return null;
+		in.seek(offset);
+		return in;
+	}
+
+	/**
+	 * Decodes the value for key, as MsgPack.unpack() would.
+	 * @return the value, or null if the key is not present
+	 */
+	public Object get(String key, int options) throws InvalidMsgPackDataException {
+		MsgPackReader reader = reader(key);
+		return reader != null ? reader.readValue(options) : null;
+	}
+
+	// Returns the offset of the value for key, or -1
+	private int find(String key) {
+		//ASCII keys, which is all of them in practice, need no encoding
+		byte[] encoded = isAscii(key) ? null : key.getBytes(UTF8);
+		for (int i = (size - 1) * STRIDE; i >= 0; i -= STRIDE) {
+			int start = index[i];
+			int length = index[i + 1];
+			if (start == -1)
+				continue;
+			if (encoded == null ? asciiEquals(start, length, key) :
+					bytesEqual(start, length, encoded))
+				return index[i + 2];
+		}
+		return -1;
+	}
+
+	private boolean asciiEquals(int start, int length, String key) {
+		if (key.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (buf.get(start + i) != key.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean bytesEqual(int start, int length, byte[] key) {
+		if (key.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (buf.get(start + i) != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isAscii(String key) {
+		for (int i = 0; i < key.length(); i++) {
+			if (key.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,808 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.asdfa.msgpack.MsgPack.*;
+
+/**
+ * Pull-style msgpack decoder.
+ *
+ * The reader walks packed data one token at a time, so callers can pick out
+ * the values they care about and skip the rest without building a tree of
+ * Maps and Lists.  Container headers only return the element count; the
+ * caller then reads that many values (twice that many for maps, alternating
+ * key and value).
+ *
+ * The buffer is read with absolute gets starting at its position when the
+ * reader was created, and is never modified.  Raw values returned by
+ * readRaw(), readExtension() and readValue() share the buffer's content.
+ *
+ * Numeric accessors accept any encoded width, so callers are unaffected by
+ * the packer choosing a smaller or larger representation for a value.
+ *
+ * If the reader is given a StringCache, short strings are returned from
+ * the cache instead of being decoded each time.
+ */
+public class MsgPackReader {
+	public static final int TYPE_NIL = 0;
+	public static final int TYPE_BOOLEAN = 1;
+	public static final int TYPE_INTEGER = 2;
+	public static final int TYPE_FLOAT = 3;
+	// str, and the raw family it replaced
+	public static final int TYPE_RAW = 4;
+	public static final int TYPE_ARRAY = 5;
+	public static final int TYPE_MAP = 6;
+	public static final int TYPE_BINARY = 7;
+	public static final int TYPE_EXTENSION = 8;
+
+	private final ByteBuffer buf;
+	private final StringCache strings;
+	private final int limit;
+	private int pos;
+	// Encoded size of the last value examined by peekInteger()
+	private int tokenSize;
+
+	public MsgPackReader(ByteBuffer data) {
+		this(data, null);
+	}
+
+	/**
+	 * @param strings intern table for decoded strings, or null
+	 */
+	public MsgPackReader(ByteBuffer data, StringCache strings) {
+		// Multi-byte values are big-endian on the wire
+		if (data.order() != ByteOrder.BIG_ENDIAN)
+			data = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.buf = data;
+		this.strings = strings;
+		this.limit = data.limit();
+		this.pos = data.position();
+	}
+
+	/**
+	 * @return the offset in the buffer of the next unread byte
+	 */
+	public int position() {
+		return pos;
+	}
+
+	// Moves to an offset previously returned by position()
+	void seek(int position) {
+		pos = position;
+	}
+
+	/**
+	 * @return whether any input remains
+	 */
+	public boolean hasNext() {
+		return pos < limit;
+	}
+
+	/**
+	 * Returns the type of the next value without consuming it.
+	 * @return one of the TYPE_* constants
+	 * @throws InvalidMsgPackDataException If no input remains or the next
+	 * byte is not a valid type.
+	 */
+	public int nextType() throws InvalidMsgPackDataException {
+		return typeOf(peek());
+	}
+
+	public void readNil() throws InvalidMsgPackDataException {
+		if ((byte)peek() != MP_NULL)
+			throw typeMismatch("nil");
+		pos++;
+	}
+
+	/**
+	 * Reads a boolean.
+	 */
+	public boolean readBoolean() throws InvalidMsgPackDataException {
+		switch ((byte)peek()) {
+			case MP_TRUE:
+				pos++;
+				return true;
+			case MP_FALSE:
+				pos++;
+				return false;
+			default:
+				throw typeMismatch("boolean");
+		}
+	}
+
+	/**
+	 * Reads an integer of any encoded width.
+	 * @throws InvalidMsgPackDataException If the next value is not an
+	 * integer or does not fit in an int.
+	 */
+	public int readInt() throws InvalidMsgPackDataException {
+		long v = peekInteger();
+		if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+			throw new InvalidMsgPackDataException("Integer value out of range");
+		pos += tokenSize;
+		return (int)v;
+	}
+
+	/**
+	 * Reads an integer of any encoded width.
+	 * @throws InvalidMsgPackDataException If the next value is not an
+	 * integer or is an unsigned value that does not fit in a long.
+	 */
+	public long readLong() throws InvalidMsgPackDataException {
+		long v = peekInteger();
+		pos += tokenSize;
+		return v;
+	}
+
+	/**
+	 * Reads a floating-point value.  Integers of any width are also
+	 * accepted and converted, so the sender may pack whole numbers
+	 * compactly.
+	 */
+	public double readDouble() throws InvalidMsgPackDataException {
+		switch ((byte)peek()) {
+			case MP_FLOAT:
+				require(5);
+				pos += 5;
+				return Float.intBitsToFloat(buf.getInt(pos - 4));
+			case MP_DOUBLE:
+				require(9);
+				pos += 9;
+				return Double.longBitsToDouble(buf.getLong(pos - 8));
+		}
+		long v = peekInteger();
+		pos += tokenSize;
+		return v;
+	}
+
+	/**
+	 * Reads a str value and decodes it as UTF-8.  bin values are not
+	 * accepted.
+	 */
+	public String readString() throws InvalidMsgPackDataException {
+		int size = readStrHeader();
+		int start = pos;
+		pos += size;
+		return decodeString(start, size);
+	}
+
+	// Skips a str value, returning the length of its payload, which ends
+	// at position()
+	int skipString() throws InvalidMsgPackDataException {
+		int size = readStrHeader();
+		pos += size;
+		return size;
+	}
+
+	/**
+	 * Reads a str or bin value without decoding it.
+	 * @return a read-only slice of the input
+	 */
+	public ByteBuffer readRaw() throws InvalidMsgPackDataException {
+		int size = nextType() == TYPE_BINARY ? readBinHeader() : readStrHeader();
+		int start = pos;
+		pos += size;
+		return slice(start, size);
+	}
+
+	/**
+	 * Reads an ext or fixext value.
+	 * @return the extension, whose payload is a read-only slice of the input
+	 */
+	public MsgPackExtension readExtension() throws InvalidMsgPackDataException {
+		int value = peek();
+		int size;
+		int header;
+		switch ((byte)value) {
+			case MP_FIXEXT1:
+				size = 1;
+				header = 1;
+				break;
+			case MP_FIXEXT2:
+				size = 2;
+				header = 1;
+				break;
+			case MP_FIXEXT4:
+				size = 4;
+				header = 1;
+				break;
+			case MP_FIXEXT8:
+				size = 8;
+				header = 1;
+				break;
+			case MP_FIXEXT16:
+				size = 16;
+				header = 1;
+				break;
+			case MP_EXT8:
+				require(2);
+				size = buf.get(pos + 1) & MAX_8BIT;
+				header = 2;
+				break;
+			case MP_EXT16:
+				require(3);
+				size = buf.getShort(pos + 1) & MAX_16BIT;
+				header = 3;
+				break;
+			case MP_EXT32:
+				require(5);
+				size = buf.getInt(pos + 1);
+				if (size < 0) throw new InvalidMsgPackDataException("Extension to unpack too large for Java (more than 2^31 bytes)!");
+				header = 5;
+				break;
+			default:
+				throw typeMismatch("extension");
+		}
+		// type byte, then payload.  Checked separately, since header + 1 +
+		// size can overflow for ext32.
+		require(header + 1);
+		if (size > limit - pos - header - 1)
+			throw new InvalidMsgPackDataException("No more input available when expecting a value");
+		byte type = buf.get(pos + header);
+		int start = pos + header + 1;
+		pos = start + size;
+		return new MsgPackExtension(type, slice(start, size));
+	}
+
+	/**
+	 * Reads a map header.  The caller must then read or skip the returned
+	 * number of key/value pairs.
+	 * @return the number of entries in the map
+	 */
+	public int readMapHeader() throws InvalidMsgPackDataException {
+		int value = peek();
+		int size;
+		switch ((byte)value) {
+			case MP_MAP16:
+				require(3);
+				size = buf.getShort(pos + 1) & MAX_16BIT;
+				pos += 3;
+				return size;
+			case MP_MAP32:
+				require(5);
+				size = buf.getInt(pos + 1);
+				if (size < 0) throw new InvalidMsgPackDataException("Map to unpack too large for Java (more than 2^31 elements)!");
+				pos += 5;
+				return size;
+		}
+		if (value >= MP_FIXMAP_INT && value <= MP_FIXMAP_INT + MAX_4BIT) {
+			pos++;
+			return value - MP_FIXMAP_INT;
+		}
+		throw typeMismatch("map");
+	}
+
+	/**
+	 * Reads an array header.  The caller must then read or skip the
+	 * returned number of elements.
+	 * @return the number of elements in the array
+	 */
+	public int readArrayHeader() throws InvalidMsgPackDataException {
+		int value = peek();
+		int size;
+		switch ((byte)value) {
+			case MP_ARRAY16:
+				require(3);
+				size = buf.getShort(pos + 1) & MAX_16BIT;
+				pos += 3;
+				return size;
+			case MP_ARRAY32:
+				require(5);
+				size = buf.getInt(pos + 1);
+				if (size < 0) throw new InvalidMsgPackDataException("Array to unpack too large for Java (more than 2^31 elements)!");
+				pos += 5;
+				return size;
+		}
+		if (value >= MP_FIXARRAY_INT && value <= MP_FIXARRAY_INT + MAX_4BIT) {
+			pos++;
+			return value - MP_FIXARRAY_INT;
+		}
+		throw typeMismatch("array");
+	}
+
+	/**
+	 * Skips the next value, including all of its contents if it is a
+	 * container.
+	 */
+	public void skipValue() throws InvalidMsgPackDataException {
+		long pending = 1;
+		while (pending > 0) {
+			pending--;
+			int value = readUnsignedByte();
+			switch ((byte)value) {
+				case MP_NULL:
+				case MP_FALSE:
+				case MP_TRUE:
+					continue;
+				case MP_UINT8:
+				case MP_INT8:
+					skip(1);
+					continue;
+				case MP_UINT16:
+				case MP_INT16:
+					skip(2);
+					continue;
+				case MP_FLOAT:
+				case MP_UINT32:
+				case MP_INT32:
+					skip(4);
+					continue;
+				case MP_DOUBLE:
+				case MP_UINT64:
+				case MP_INT64:
+					skip(8);
+					continue;
+				case MP_ARRAY16:
+					pending += readShort() & MAX_16BIT;
+					continue;
+				case MP_ARRAY32:
+					pending += readInt32() & MAX_32BIT;
+					continue;
+				case MP_MAP16:
+					pending += 2L * (readShort() & MAX_16BIT);
+					continue;
+				case MP_MAP32:
+					pending += 2L * (readInt32() & MAX_32BIT);
+					continue;
+				case MP_STR8:
+				case MP_BIN8:
+					skip(readUnsignedByte());
+					continue;
+				case MP_RAW16:
+				case MP_BIN16:
+					skip(readShort() & MAX_16BIT);
+					continue;
+				case MP_RAW32:
+				case MP_BIN32:
+					skip(readInt32());
+					continue;
+				case MP_FIXEXT1:
+					skip(1 + 1);
+					continue;
+				case MP_FIXEXT2:
+					skip(1 + 2);
+					continue;
+				case MP_FIXEXT4:
+					skip(1 + 4);
+					continue;
+				case MP_FIXEXT8:
+					skip(1 + 8);
+					continue;
+				case MP_FIXEXT16:
+					skip(1 + 16);
+					continue;
+				case MP_EXT8:
+					skip(1 + readUnsignedByte());
+					continue;
+				case MP_EXT16:
+					skip(1 + (readShort() & MAX_16BIT));
+					continue;
+				case MP_EXT32: {
+					int size = readInt32();
+					skip(1);
+					skip(size);
+					continue;
+				}
+			}
+
+			if (value >= MP_NEGATIVE_FIXNUM_INT || value <= MAX_7BIT) {
+				continue;
+			} else if (value >= MP_FIXARRAY_INT && value <= MP_FIXARRAY_INT + MAX_4BIT) {
+				pending += value - MP_FIXARRAY_INT;
+			} else if (value >= MP_FIXMAP_INT && value <= MP_FIXMAP_INT + MAX_4BIT) {
+				pending += 2 * (value - MP_FIXMAP_INT);
+			} else if (value >= MP_FIXRAW_INT && value <= MP_FIXRAW_INT + MAX_5BIT) {
+				skip(value - MP_FIXRAW_INT);
+			} else {
+				throw new InvalidMsgPackDataException("Input contains invalid type value");
+			}
+		}
+	}
+
+	/**
+	 * Reads the next value, building Java objects as described in MsgPack.
+	 * @param options Bitmask of options, @see MsgPack.unpack(byte[] data, int options)
+	 */
+	public Object readValue(int options) throws InvalidMsgPackDataException {
+		int value = readUnsignedByte();
+
+		switch ((byte)value) {
+			case MP_NULL:
+				return null;
+			case MP_FALSE:
+				return false;
+			case MP_TRUE:
+				return true;
+			case MP_FLOAT:
+				return Float.intBitsToFloat(readInt32());
+			case MP_DOUBLE:
+				return Double.longBitsToDouble(readInt64());
+			case MP_UINT8:
+				return readUnsignedByte();//return as int
+			case MP_UINT16:
+				return readShort() & MAX_16BIT;//treat as unsigned, return int
+			case MP_UINT32:
+				return readInt32() & MAX_32BIT;//treat as unsigned, return long
+			case MP_UINT64: {
+				long v = readInt64();
+				if (v >= 0) return v;
+				else {
+					//we don't have unsigned longs
+					byte[] bytes = new byte[8];
+					for (int i = 0; i < 8; ++i)
+						bytes[i] = (byte)(v >>> (56 - 8 * i));
+					return new BigInteger(1, bytes);
+				}
+			}
+			case MP_INT8:
+				return (byte)readUnsignedByte();
+			case MP_INT16:
+				return readShort();
+			case MP_INT32:
+				return readInt32();
+			case MP_INT64:
+				return readInt64();
+			case MP_ARRAY16:
+				return readList(readShort() & MAX_16BIT, options);
+			case MP_ARRAY32:
+				return readList(readInt32(), options);
+			case MP_MAP16:
+				return readMap(readShort() & MAX_16BIT, options);
+			case MP_MAP32:
+				return readMap(readInt32(), options);
+			case MP_STR8:
+				return readRawValue(readUnsignedByte(), options);
+			case MP_RAW16:
+				return readRawValue(readShort() & MAX_16BIT, options);
+			case MP_RAW32:
+				return readRawValue(readInt32(), options);
+			case MP_BIN8:
+			case MP_BIN16:
+			case MP_BIN32:
+				//binary data is never decoded as text
+				pos--;
+				return readRaw();
+			case MP_FIXEXT1:
+			case MP_FIXEXT2:
+			case MP_FIXEXT4:
+			case MP_FIXEXT8:
+			case MP_FIXEXT16:
+			case MP_EXT8:
+			case MP_EXT16:
+			case MP_EXT32:
+				pos--;
+				return readExtension();
+		}
+
+		if (value >= MP_NEGATIVE_FIXNUM_INT && value <= MP_NEGATIVE_FIXNUM_INT + MAX_5BIT) {
+			return (byte)value;
+		} else if (value >= MP_FIXARRAY_INT && value <= MP_FIXARRAY_INT + MAX_4BIT) {
+			return readList(value - MP_FIXARRAY_INT, options);
+		} else if (value >= MP_FIXMAP_INT && value <= MP_FIXMAP_INT + MAX_4BIT) {
+			return readMap(value - MP_FIXMAP_INT, options);
+		} else if (value >= MP_FIXRAW_INT && value <= MP_FIXRAW_INT + MAX_5BIT) {
+			return readRawValue(value - MP_FIXRAW_INT, options);
+		} else if (value <= MAX_7BIT) {//MP_FIXNUM - the value is value as an int
+			return value;
+		} else {
+			throw new InvalidMsgPackDataException("Input contains invalid type value");
+		}
+	}
+
+	private List<Object> readList(int size, int options) throws InvalidMsgPackDataException {
+		if (size < 0) throw new InvalidMsgPackDataException("Array to unpack too large for Java (more than 2^31 elements)!");
+		//every element takes at least one byte, so don't trust size for preallocation
+		List<Object> ret = new ArrayList<Object>(Math.min(size, limit - pos));
+		for (int i = 0; i < size; ++i) {
+			ret.add(readValue(options));
+		}
+		return ret;
+	}
+
+	private Map<Object, Object> readMap(int size, int options) throws InvalidMsgPackDataException {
+		if (size < 0) throw new InvalidMsgPackDataException("Map to unpack too large for Java (more than 2^31 elements)!");
+		Map<Object, Object> ret = new HashMap<Object, Object>(Math.min(size, limit - pos));
+		for (int i = 0; i < size; ++i) {
+			Object key = readValue(options);
+			Object value = readValue(options);
+			ret.put(key, value);
+		}
+		return ret;
+	}
+
+	private Object readRawValue(int size, int options) throws InvalidMsgPackDataException {
+		if (size < 0) throw new InvalidMsgPackDataException("byte[] to unpack too large for Java (more than 2^31 elements)!");
+		require(size);
+		int start = pos;
+		pos += size;
+
+		if ((options & UNPACK_RAW_AS_BYTE_BUFFER) != 0) {
+			return slice(start, size);
+		} else if ((options & UNPACK_RAW_AS_STRING) != 0) {
+			return decodeString(start, size);
+		} else {
+			return copy(start, size);
+		}
+	}
+
+	/**
+	 * Decodes the integer at the current position without consuming it,
+	 * leaving its encoded size in tokenSize.
+	 */
+	private long peekInteger() throws InvalidMsgPackDataException {
+		int value = peek();
+		long v;
+		switch ((byte)value) {
+			case MP_UINT8:
+				require(2);
+				v = buf.get(pos + 1) & MAX_8BIT;
+				tokenSize = 2;
+				break;
+			case MP_UINT16:
+				require(3);
+				v = buf.getShort(pos + 1) & MAX_16BIT;
+				tokenSize = 3;
+				break;
+			case MP_UINT32:
+				require(5);
+				v = buf.getInt(pos + 1) & MAX_32BIT;
+				tokenSize = 5;
+				break;
+			case MP_UINT64:
+				require(9);
+				v = buf.getLong(pos + 1);
+				if (v < 0)
+					throw new InvalidMsgPackDataException("Integer value out of range");
+				tokenSize = 9;
+				break;
+			case MP_INT8:
+				require(2);
+				v = buf.get(pos + 1);
+				tokenSize = 2;
+				break;
+			case MP_INT16:
+				require(3);
+				v = buf.getShort(pos + 1);
+				tokenSize = 3;
+				break;
+			case MP_INT32:
+				require(5);
+				v = buf.getInt(pos + 1);
+				tokenSize = 5;
+				break;
+			case MP_INT64:
+				require(9);
+				v = buf.getLong(pos + 1);
+				tokenSize = 9;
+				break;
+			default:
+				if (value <= MAX_7BIT)//MP_FIXNUM
+					v = value;
+				else if (value >= MP_NEGATIVE_FIXNUM_INT)
+					v = (byte)value;
+				else
+					throw typeMismatch("integer");
+				tokenSize = 1;
+				break;
+		}
+		return v;
+	}
+
+	private String decodeString(int start, int size) {
+		if (strings != null && strings.accepts(size))
+			return strings.get(buf, start, size);
+		if (buf.hasArray())
+			return new String(buf.array(), buf.arrayOffset() + start, size, UTF8);
+		return new String(copy(start, size), UTF8);
+	}
+
+	private int readStrHeader() throws InvalidMsgPackDataException {
+		int value = peek();
+		int size;
+		switch ((byte)value) {
+			case MP_STR8:
+				require(2);
+				size = buf.get(pos + 1) & MAX_8BIT;
+				pos += 2;
+				break;
+			case MP_RAW16:
+				require(3);
+				size = buf.getShort(pos + 1) & MAX_16BIT;
+				pos += 3;
+				break;
+			case MP_RAW32:
+				require(5);
+				size = buf.getInt(pos + 1);
+				if (size < 0) throw new InvalidMsgPackDataException("byte[] to unpack too large for Java (more than 2^31 elements)!");
+				pos += 5;
+				break;
+			default:
+				if (value < MP_FIXRAW_INT || value > MP_FIXRAW_INT + MAX_5BIT)
+					throw typeMismatch("string");
+				size = value - MP_FIXRAW_INT;
+				pos++;
+				break;
+		}
+		require(size);
+		return size;
+	}
+
+	private int readBinHeader() throws InvalidMsgPackDataException {
+		int size;
+		switch ((byte)peek()) {
+			case MP_BIN8:
+				require(2);
+				size = buf.get(pos + 1) & MAX_8BIT;
+				pos += 2;
+				break;
+			case MP_BIN16:
+				require(3);
+				size = buf.getShort(pos + 1) & MAX_16BIT;
+				pos += 3;
+				break;
+			case MP_BIN32:
+				require(5);
+				size = buf.getInt(pos + 1);
+				if (size < 0) throw new InvalidMsgPackDataException("byte[] to unpack too large for Java (more than 2^31 elements)!");
+				pos += 5;
+				break;
+			default:
+				throw typeMismatch("binary");
+		}
+		require(size);
+		return size;
+	}
+
+	private static int typeOf(int value) throws InvalidMsgPackDataException {
+		switch ((byte)value) {
+			case MP_NULL:
+				return TYPE_NIL;
+			case MP_FALSE:
+			case MP_TRUE:
+				return TYPE_BOOLEAN;
+			case MP_FLOAT:
+			case MP_DOUBLE:
+				return TYPE_FLOAT;
+			case MP_UINT8:
+			case MP_UINT16:
+			case MP_UINT32:
+			case MP_UINT64:
+			case MP_INT8:
+			case MP_INT16:
+			case MP_INT32:
+			case MP_INT64:
+				return TYPE_INTEGER;
+			case MP_ARRAY16:
+			case MP_ARRAY32:
+				return TYPE_ARRAY;
+			case MP_MAP16:
+			case MP_MAP32:
+				return TYPE_MAP;
+			case MP_STR8:
+			case MP_RAW16:
+			case MP_RAW32:
+				return TYPE_RAW;
+			case MP_BIN8:
+			case MP_BIN16:
+			case MP_BIN32:
+				return TYPE_BINARY;
+			case MP_FIXEXT1:
+			case MP_FIXEXT2:
+			case MP_FIXEXT4:
+			case MP_FIXEXT8:
+			case MP_FIXEXT16:
+			case MP_EXT8:
+			case MP_EXT16:
+			case MP_EXT32:
+				return TYPE_EXTENSION;
+		}
+
+		if (value >= MP_NEGATIVE_FIXNUM_INT || value <= MAX_7BIT) {
+			return TYPE_INTEGER;
+		} else if (value >= MP_FIXARRAY_INT && value <= MP_FIXARRAY_INT + MAX_4BIT) {
+			return TYPE_ARRAY;
+		} else if (value >= MP_FIXMAP_INT && value <= MP_FIXMAP_INT + MAX_4BIT) {
+			return TYPE_MAP;
+		} else if (value >= MP_FIXRAW_INT && value <= MP_FIXRAW_INT + MAX_5BIT) {
+			return TYPE_RAW;
+		} else {
+			throw new InvalidMsgPackDataException("Input contains invalid type value");
+		}
+	}
+
+	private InvalidMsgPackDataException typeMismatch(String expected) {
+		return new InvalidMsgPackDataException("Expected " + expected + " value at offset " + pos);
+	}
+
+	private void require(int count) throws InvalidMsgPackDataException {
+		if (limit - pos < count)
+			throw new InvalidMsgPackDataException("No more input available when expecting a value");
+	}
+
+	private void skip(int count) throws InvalidMsgPackDataException {
+		if (count < 0) throw new InvalidMsgPackDataException("byte[] to unpack too large for Java (more than 2^31 elements)!");
+		require(count);
+		pos += count;
+	}
+
+	private int peek() throws InvalidMsgPackDataException {
+		require(1);
+		return buf.get(pos) & MAX_8BIT;
+	}
+
+	private int readUnsignedByte() throws InvalidMsgPackDataException {
+		require(1);
+		return buf.get(pos++) & MAX_8BIT;
+	}
+
+	private short readShort() throws InvalidMsgPackDataException {
+		require(2);
+		short v = buf.getShort(pos);
+		pos += 2;
+		return v;
+	}
+
+	private int readInt32() throws InvalidMsgPackDataException {
+		require(4);
+		int v = buf.getInt(pos);
+		pos += 4;
+		return v;
+	}
+
+	private long readInt64() throws InvalidMsgPackDataException {
+		require(8);
+		long v = buf.getLong(pos);
+		pos += 8;
+		return v;
+	}
+
+	private ByteBuffer slice(int start, int size) {
+		ByteBuffer slice = buf.asReadOnlyBuffer();
+		slice.limit(start + size);
+		slice.position(start);
+		return slice.slice();
+	}
+
+	private byte[] copy(int start, int size) {
+		byte[] data = new byte[size];
+		ByteBuffer src = buf.duplicate();
+		src.limit(start + size);
+		src.position(start);
+		src.get(data);
+		return data;
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+
+import static net.asdfa.msgpack.MsgPack.*;
+
+/**
+ * msgpack encoder that writes into a ByteBuffer.
+ *
+ * Output starts at the buffer's position.  If the buffer fills up, it is
+ * replaced with a larger one of the same kind and the existing contents are
+ * carried over, so callers must fetch the result with getBuffer() rather
+ * than keeping a reference to the buffer they passed in.
+ *
+ * Values are packed with the same type mapping as MsgPack.pack(), using
+ * the smallest header that can represent each value.
+ *
+ * By default, only formats from the original msgpack spec are used, since
+ * older decoders reject the str8, bin and ext formats added in 2013: byte
+ * arrays are packed as raw, strings never use str8, and extensions can't
+ * be packed at all.  setRevisedFormats() enables the newer formats.  The
+ * app never enables them, since the VMNetX server's decoder isn't known
+ * to accept them, so its messages always use the original formats.
+ */
+public class MsgPackWriter {
+	private static final int LENGTH_SIZE = 4;
+
+	private ByteBuffer buf;
+	private boolean revisedFormats = false;
+
+	public MsgPackWriter(ByteBuffer buf) {
+		reset(buf);
+	}
+
+	/**
+	 * Starts writing into a new buffer, at its position.
+	 */
+	public void reset(ByteBuffer buf) {
+		buf.order(ByteOrder.BIG_ENDIAN);
+		buf.limit(buf.capacity());
+		this.buf = buf;
+	}
+
+	/**
+	 * Selects whether str8, bin and ext may be used.  Only enable this if
+	 * the peer's decoder implements the 2013 revision of the spec.
+	 */
+	public void setRevisedFormats(boolean enabled) {
+		revisedFormats = enabled;
+	}
+
+	/**
+	 * @return the buffer holding the output, positioned after the last
+	 * byte written
+	 */
+	public ByteBuffer getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Reserves space for a 4-byte big-endian length prefix, to be filled
+	 * in by patchLength() once the data following it has been written.
+	 * @return the offset of the reserved slot
+	 */
+	public int reserveLength() {
+		ensure(LENGTH_SIZE);
+		int offset = buf.position();
+		buf.putInt(0);
+		return offset;
+	}
+
+	/**
+	 * Fills in a slot returned by reserveLength() with the number of bytes
+	 * written since the slot.
+	 */
+	public void patchLength(int offset) {
+		buf.putInt(offset, buf.position() - offset - LENGTH_SIZE);
+	}
+
+	public void packNil() {
+		ensure(1);
+		buf.put(MP_NULL);
+	}
+
+	public void packBoolean(boolean value) {
+		ensure(1);
+		buf.put(value ? MP_TRUE : MP_FALSE);
+	}
+
+	public void packFloat(float value) {
+		ensure(5);
+		buf.put(MP_FLOAT);
+		buf.putFloat(value);
+	}
+
+	public void packDouble(double value) {
+		ensure(9);
+		buf.put(MP_DOUBLE);
+		buf.putDouble(value);
+	}
+
+	public void packLong(long value) {
+		ensure(9);
+		if (value >= 0) {
+			if (value <= MAX_7BIT) {
+				buf.put((byte)(value | MP_FIXNUM));
+			} else if (value <= MAX_8BIT) {
+				buf.put(MP_UINT8);
+				buf.put((byte)value);
+			} else if (value <= MAX_16BIT) {
+				buf.put(MP_UINT16);
+				buf.putShort((short)value);
+			} else if (value <= MAX_32BIT) {
+				buf.put(MP_UINT32);
+				buf.putInt((int)value);
+			} else {
+				buf.put(MP_UINT64);
+				buf.putLong(value);
+			}
+		} else {
+			if (value >= -(MAX_5BIT + 1)) {
+				buf.put((byte)value);
+			} else if (value >= -(MAX_7BIT + 1)) {
+				buf.put(MP_INT8);
+				buf.put((byte)value);
+			} else if (value >= -(MAX_15BIT + 1)) {
+				buf.put(MP_INT16);
+				buf.putShort((short)value);
+			} else if (value >= -(MAX_31BIT + 1)) {
+				buf.put(MP_INT32);
+				buf.putInt((int)value);
+			} else {
+				buf.put(MP_INT64);
+				buf.putLong(value);
+			}
+		}
+	}
+
+	/**
+	 * Packs a String as UTF-8, encoding directly into the output buffer.
+	 * Unpaired surrogates are replaced with '?', as String.getBytes() does.
+	 */
+	public void packString(String value) {
+		int length = value.length();
+		int size = utf8Length(value);
+		packStringHeader(size);
+		ensure(size);
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buf.put((byte)c);
+			} else if (c < 0x800) {
+				buf.put((byte)(0xc0 | (c >> 6)));
+				buf.put((byte)(0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length &&
+					Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buf.put((byte)(0xf0 | (cp >> 18)));
+				buf.put((byte)(0x80 | ((cp >> 12) & 0x3f)));
+				buf.put((byte)(0x80 | ((cp >> 6) & 0x3f)));
+				buf.put((byte)(0x80 | (cp & 0x3f)));
+			} else if (isSurrogate(c)) {
+				buf.put((byte)'?');
+			} else {
+				buf.put((byte)(0xe0 | (c >> 12)));
+				buf.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buf.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	public void packBinary(byte[] value) {
+		packBinaryHeader(value.length);
+		ensure(value.length);
+		buf.put(value);
+	}
+
+	/**
+	 * Packs the bytes between the position and limit of value as bin.  The
+	 * position of value is not changed.
+	 */
+	public void packBinary(ByteBuffer value) {
+		packBinaryHeader(value.remaining());
+		ensure(value.remaining());
+		buf.put(value.duplicate());
+	}
+
+	/**
+	 * Packs an extension value, using a fixext format when the payload
+	 * size allows.
+	 * @throws IllegalStateException If the revised formats aren't enabled,
+	 * since the original spec has no way to represent extensions.
+	 */
+	public void packExtension(MsgPackExtension value) {
+		if (!revisedFormats)
+			throw new IllegalStateException("Extensions need the revised msgpack formats");
+		ByteBuffer data = value.getData();
+		int size = data.remaining();
+		ensure(6 + size);
+		switch (size) {
+			case 1:
+				buf.put(MP_FIXEXT1);
+				break;
+			case 2:
+				buf.put(MP_FIXEXT2);
+				break;
+			case 4:
+				buf.put(MP_FIXEXT4);
+				break;
+			case 8:
+				buf.put(MP_FIXEXT8);
+				break;
+			case 16:
+				buf.put(MP_FIXEXT16);
+				break;
+			default:
+				if (size <= MAX_8BIT) {
+					buf.put(MP_EXT8);
+					buf.put((byte)size);
+				} else if (size <= MAX_16BIT) {
+					buf.put(MP_EXT16);
+					buf.putShort((short)size);
+				} else {
+					buf.put(MP_EXT32);
+					buf.putInt(size);
+				}
+				break;
+		}
+		buf.put(value.getType());
+		buf.put(data.duplicate());
+	}
+
+	public void packArrayHeader(int size) {
+		ensure(5);
+		if (size <= MAX_4BIT) {
+			buf.put((byte)(size | MP_FIXARRAY));
+		} else if (size <= MAX_16BIT) {
+			buf.put(MP_ARRAY16);
+			buf.putShort((short)size);
+		} else {
+			buf.put(MP_ARRAY32);
+			buf.putInt(size);
+		}
+	}
+
+	public void packMapHeader(int size) {
+		ensure(5);
+		if (size <= MAX_4BIT) {
+			buf.put((byte)(size | MP_FIXMAP));
+		} else if (size <= MAX_16BIT) {
+			buf.put(MP_MAP16);
+			buf.putShort((short)size);
+		} else {
+			buf.put(MP_MAP32);
+			buf.putInt(size);
+		}
+	}
+
+	/**
+	 * Packs an arbitrary item.
+	 * Warning: this does not do any recursion checks.
+	 * @throws UnpackableItemException If the given data cannot be packed.
+	 */
+	public void pack(Object item) {
+		if (item == null) {
+			packNil();
+		} else if (item instanceof Boolean) {
+			packBoolean((Boolean)item);
+		} else if (item instanceof Number) {
+			if (item instanceof Float)
+				packFloat((Float)item);
+			else if (item instanceof Double)
+				packDouble((Double)item);
+			else
+				packLong(((Number)item).longValue());
+		} else if (item instanceof String) {
+			packString((String)item);
+		} else if (item instanceof byte[]) {
+			packBinary((byte[])item);
+		} else if (item instanceof ByteBuffer) {
+			packBinary((ByteBuffer)item);
+		} else if (item instanceof MsgPackExtension) {
+			packExtension((MsgPackExtension)item);
+		} else if (item instanceof List) {
+			List<?> list = (List<?>)item;
+			packArrayHeader(list.size());
+			for (Object element : list) {
+				pack(element);
+			}
+		} else if (item instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>)item;
+			packMapHeader(map.size());
+			for (Map.Entry<?, ?> kvp : map.entrySet()) {
+				pack(kvp.getKey());
+				pack(kvp.getValue());
+			}
+		} else {
+			throw new UnpackableItemException("Cannot msgpack object of type " + item.getClass().getCanonicalName());
+		}
+	}
+
+	private void packStringHeader(int size) {
+		ensure(5);
+		if (size <= MAX_5BIT) {
+			buf.put((byte)(size | MP_FIXRAW));
+		} else if (size <= MAX_8BIT && revisedFormats) {
+			buf.put(MP_STR8);
+			buf.put((byte)size);
+		} else if (size <= MAX_16BIT) {
+			buf.put(MP_RAW16);
+			buf.putShort((short)size);
+		} else {
+			buf.put(MP_RAW32);
+			buf.putInt(size);
+		}
+	}
+
+	private void packBinaryHeader(int size) {
+		if (!revisedFormats) {
+			packStringHeader(size);
+			return;
+		}
+		ensure(5);
+		if (size <= MAX_8BIT) {
+			buf.put(MP_BIN8);
+			buf.put((byte)size);
+		} else if (size <= MAX_16BIT) {
+			buf.put(MP_BIN16);
+			buf.putShort((short)size);
+		} else {
+			buf.put(MP_BIN32);
+			buf.putInt(size);
+		}
+	}
+
+	private static int utf8Length(String value) {
+		int length = value.length();
+		int size = length;
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				continue;
+			} else if (c < 0x800) {
+				size += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length &&
+					Character.isLowSurrogate(value.charAt(i + 1))) {
+				// 4 bytes for two chars
+				size += 2;
+				i++;
+			} else if (!isSurrogate(c)) {
+				size += 2;
+			}
+		}
+		return size;
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	private void ensure(int count) {
+		if (buf.remaining() >= count)
+			return;
+		int needed = buf.position() + count;
+		int capacity = Math.max(needed, buf.capacity() * 2);
+		ByteBuffer grown = buf.isDirect() ? ByteBuffer.allocateDirect(capacity) :
+				ByteBuffer.allocate(capacity);
+		buf.flip();
+		grown.put(buf);
+		buf = grown;
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+import static net.asdfa.msgpack.MsgPack.UTF8;
+
+/**
+ * Bounded intern table for short decoded strings.
+ *
+ * Map keys and enum-like values repeat in every message.  When a reader
+ * has a StringCache, short raws are looked up by their encoded bytes and
+ * the previously decoded String is returned instead of a new one.  The
+ * table is direct-mapped, so a colliding string simply replaces the old
+ * entry; memory use is bounded by the table size and maxLength.
+ *
+ * Strings added with add() are returned as the same instance on later
+ * lookups (unless evicted by a collision), so seeding the table with
+ * literals makes decoded values share them.
+ *
+ * Instances may be shared between threads.  Entries are immutable, so a
+ * race between two threads can only cause a miss.
+ */
+public class StringCache {
+	private static final class Entry {
+		final byte[] bytes;
+		final int hash;
+		final String value;
+
+		Entry(byte[] bytes, int hash, String value) {
+			this.bytes = bytes;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	private final Entry[] table;
+	private final int maxLength;
+
+	/**
+	 * @param size number of table slots; rounded up to a power of 2
+	 * @param maxLength longest encoded string, in bytes, that will be cached
+	 */
+	public StringCache(int size, int maxLength) {
+		int slots = Integer.highestOneBit(Math.max(size, 1));
+		if (slots < size)
+			slots <<= 1;
+		this.table = new Entry[slots];
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Seeds the table with a canonical instance.
+	 */
+	public void add(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		if (bytes.length > maxLength)
+			return;
+		int hash = hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+		table[hash & (table.length - 1)] = new Entry(bytes, hash, value);
+	}
+
+	/**
+	 * @return whether a string of this encoded length is eligible for
+	 * caching
+	 */
+	boolean accepts(int length) {
+		return length <= maxLength;
+	}
+
+	/**
+	 * Returns the string encoded in buf at [offset, offset + length),
+	 * decoding and caching it if it is not already present.
+	 */
+	String get(ByteBuffer buf, int offset, int length) {
+		int hash = hash(buf, offset, length);
+		int slot = hash & (table.length - 1);
+		Entry entry = table[slot];
+		if (entry != null && entry.hash == hash && matches(entry.bytes, buf, offset, length))
+			return entry.value;
+
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i)
+			bytes[i] = buf.get(offset + i);
+		String value = new String(bytes, UTF8);
+		table[slot] = new Entry(bytes, hash, value);
+		return value;
+	}
+
+	private static int hash(ByteBuffer buf, int offset, int length) {
+		// FNV-1a
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < length; ++i) {
+			hash ^= buf.get(offset + i) & 0xff;
+			hash *= 0x01000193;
+		}
+		// Fold high bits into the slot index
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(byte[] bytes, ByteBuffer buf, int offset, int length) {
+		if (bytes.length != length)
+			return false;
+		for (int i = 0; i < length; ++i) {
+			if (bytes[i] != buf.get(offset + i))
+				return false;
+		}
+		return true;
+	}
+}
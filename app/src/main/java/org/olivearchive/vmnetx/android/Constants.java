@@ -34,25 +34,25 @@ public class Constants {
     // Base protocol events
     // no arguments
     public static final int PROTOCOL_CONNECTED = 101;
-    // ARG_ERROR
+    // Messages.ServerError
     public static final int PROTOCOL_ERROR = 102;
     // no arguments
     public static final int PROTOCOL_DISCONNECTED = 103;
 
     // Client protocol events
-    // ARG_VM_STATE, ARG_VM_NAME, ARG_MAX_MOUSE_RATE
+    // Messages.AuthOk
     public static final int CLIENT_PROTOCOL_AUTH_OK = 201;
-    // ARG_ERROR
+    // Messages.AuthFailed
     public static final int CLIENT_PROTOCOL_AUTH_FAILED = 202;
     // no arguments
     public static final int CLIENT_PROTOCOL_ATTACHING_VIEWER = 203;
-    // ARG_PROGRESS
+    // Messages.StartupProgress
     public static final int CLIENT_PROTOCOL_STARTUP_PROGRESS = 204;
     // no arguments
     public static final int CLIENT_PROTOCOL_STARTUP_REJECTED_MEMORY = 206;
-    // ARG_ERROR
+    // Messages.StartupFailed
     public static final int CLIENT_PROTOCOL_STARTUP_FAILED = 207;
-    // ARG_CHECK_DISPLAY
+    // Messages.VmStarted
     public static final int CLIENT_PROTOCOL_VM_STARTED = 208;
     // no arguments
     public static final int CLIENT_PROTOCOL_VM_STOPPED = 209;
@@ -60,24 +60,8 @@ public class Constants {
     public static final int CLIENT_PROTOCOL_VM_DESTROYED = 210;
     // no arguments
     public static final int CLIENT_PROTOCOL_PONG = 211;
-
-    // Arguments
-    // String
-    public static final String ARG_ERROR = "error";
-    // double
-    public static final String ARG_PROGRESS = "progress";
-    // boolean
-    public static final String ARG_CHECK_DISPLAY = "check-display";
-    // VM_STATE_* int
-    public static final String ARG_VM_STATE = "state";
-    // String
-    public static final String ARG_VM_NAME = "vm-name";
-    // int
-    public static final String ARG_MAX_MOUSE_RATE = "max-mouse-rate";
-    // int
-    public static final String ARG_SERVER_TIMEOUT_MIN = "server-timeout-min";
-    // int
-    public static final String ARG_SERVER_TIMEOUT_MAX = "server-timeout-max";
+    // Messages.AuthFailed
+    public static final int CLIENT_PROTOCOL_RESUME_FAILED = 212;
 
     // VM states
     public static final int VM_STATE_UNKNOWN = 0;
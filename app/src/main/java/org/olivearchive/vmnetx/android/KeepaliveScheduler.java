@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+/**
+ * Decides when to probe the control connection with a ping and when to
+ * declare it dead.
+ *
+ * The link is probed only after it has been quiet for the idle interval;
+ * any inbound message counts as proof of liveness.  Once a probe is out,
+ * each reply deadline is a retransmission timeout computed from the
+ * measured RTT and its variance as in RFC 6298, and a late reply triggers
+ * another probe at that shorter spacing.  The connection is dead after
+ * PROBES probes in a row go unanswered.
+ *
+ * The server keeps a session for at least server_timeout_min seconds after
+ * the client disconnects, so the idle interval is sized to detect a dead
+ * link within half of that, leaving the rest for reconnecting.
+ *
+ * Times are in milliseconds from any monotonic clock.  Not thread-safe.
+ */
+class KeepaliveScheduler {
+    static final int WAIT = 0;
+    static final int PING = 1;
+    static final int DEAD = 2;
+
+    static final int PROBES = 3;
+
+    // Used until the server reports its timeouts
+    private static final long DEFAULT_DETECT_TIME = 12000;
+    private static final long MIN_INTERVAL = 2000;
+    private static final long MAX_INTERVAL = 60000;
+    // Used until the first RTT sample
+    private static final long INITIAL_RTO = 3000;
+    private static final long MIN_RTO = 500;
+    private static final long MAX_RTO = 5000;
+
+    private long detectTime = DEFAULT_DETECT_TIME;
+    private long srtt = -1;
+    private long rttvar;
+
+    private long lastInbound;
+    private long lastProbe;
+    private int probes;
+
+    /**
+     * Starts over for a new connection.
+     */
+    void reset(long now) {
+        lastInbound = now;
+        probes = 0;
+    }
+
+    /**
+     * @param serverTimeoutMin seconds, or 0 if unknown
+     */
+    void setServerTimeout(int serverTimeoutMin) {
+        if (serverTimeoutMin > 0)
+            detectTime = serverTimeoutMin * 1000L / 2;
+        else
+            detectTime = DEFAULT_DETECT_TIME;
+    }
+
+    /**
+     * Notes that a message arrived from the server.
+     */
+    void onInbound(long now) {
+        lastInbound = now;
+        probes = 0;
+    }
+
+    /**
+     * Adds a ping round-trip time sample.
+     */
+    void onRoundTrip(long rtt) {
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+    }
+
+    long getRetransmitTimeout() {
+        if (srtt < 0)
+            return INITIAL_RTO;
+        return clamp(srtt + 4 * rttvar, MIN_RTO, MAX_RTO);
+    }
+
+    long getIdleInterval() {
+        return clamp(detectTime - PROBES * getRetransmitTimeout(),
+                MIN_INTERVAL, MAX_INTERVAL);
+    }
+
+    /**
+     * @return WAIT, PING if a probe should be sent now, or DEAD
+     */
+    int poll(long now) {
+        if (probes == 0) {
+            if (now - lastInbound < getIdleInterval())
+                return WAIT;
+        } else {
+            if (now - lastProbe < getRetransmitTimeout())
+                return WAIT;
+            if (probes >= PROBES)
+                return DEAD;
+        }
+        probes++;
+        lastProbe = now;
+        return PING;
+    }
+
+    /**
+     * @return milliseconds until poll() should next be called
+     */
+    long getDelay(long now) {
+        long due;
+        if (probes == 0)
+            due = lastInbound + getIdleInterval();
+        else
+            due = lastProbe + getRetransmitTimeout();
+        return Math.max(0, due - now);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
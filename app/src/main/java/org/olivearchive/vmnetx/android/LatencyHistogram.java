@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+/**
+ * Log-linear histogram of latency samples in microseconds.  Each power of
+ * two is split into 16 linear buckets, so reported percentiles are within
+ * about 6% of the true value.  Minimum and maximum are exact.  Jitter is
+ * the smoothed mean difference between consecutive samples, as in RFC 3550.
+ * Thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Samples above 2^36 us (about 19 hours) are clamped
+    private static final int MAX_BITS = 36;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final long[] counts = new long[(MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long min;
+    private long max;
+    private long last;
+    private double jitter;
+
+    /**
+     * A point-in-time summary of the histogram.
+     */
+    public static class Summary {
+        public final long count;
+        public final long minUs;
+        public final long p50Us;
+        public final long p99Us;
+        public final long maxUs;
+        public final double jitterUs;
+
+        private Summary(long count, long minUs, long p50Us, long p99Us,
+                long maxUs, double jitterUs) {
+            this.count = count;
+            this.minUs = minUs;
+            this.p50Us = p50Us;
+            this.p99Us = p99Us;
+            this.maxUs = maxUs;
+            this.jitterUs = jitterUs;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " min=" + minUs + "us p50=" + p50Us +
+                    "us p99=" + p99Us + "us max=" + maxUs + "us jitter=" +
+                    Math.round(jitterUs) + "us";
+        }
+    }
+
+    public synchronized void record(long valueUs) {
+        long value = Math.max(0, Math.min(valueUs, MAX_VALUE));
+        counts[indexOf(value)]++;
+        if (count == 0) {
+            min = max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            jitter += (Math.abs(value - last) - jitter) / 16;
+        }
+        last = value;
+        count++;
+    }
+
+    public synchronized Summary getSummary() {
+        if (count == 0)
+            return new Summary(0, 0, 0, 0, 0, 0);
+        return new Summary(count, min, percentile(0.5), percentile(0.99),
+                max, jitter);
+    }
+
+    // Caller must hold the lock
+    private long percentile(double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.max(min, Math.min(max, valueOf(i)));
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        int sub = (int) (value >> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Midpoint of the bucket at index
+    private static long valueOf(int index) {
+        int group = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (group == 0)
+            return sub;
+        int shift = group - 1;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+import java.util.Random;
+
+/**
+ * Decides when to retry a lost connection.
+ *
+ * The first retry of an outage is immediate.  Later retries wait a random
+ * time between zero and an exponentially growing cap ("full jitter"), so
+ * clients that lost a server at the same moment don't return to it in
+ * lockstep.  An outage is abandoned once it has lasted longer than the
+ * deadline, after which the server will have discarded the session.
+ *
+ * Times are in milliseconds from any monotonic clock.  Thread-safe, so
+ * that stats can be read from any thread.
+ */
+class ReconnectPolicy {
+    static final long GIVE_UP = -1;
+
+    private static final long BASE_DELAY = 500;
+    private static final long MAX_DELAY = 30000;
+
+    private final Random random = new Random();
+
+    // 0 for no deadline
+    private long deadline;
+
+    private boolean failing;
+    private long outageStart;
+    private int attempts;
+
+    // Stats
+    private int totalAttempts;
+    private int outages;
+    private int recoveries;
+    private int failures;
+    private long lastRecoveryTime;
+    private long maxRecoveryTime;
+    private long totalRecoveryTime;
+
+    /**
+     * @param deadline seconds, from server_timeout_max, or 0 for none
+     */
+    synchronized void setDeadline(int deadline) {
+        this.deadline = deadline * 1000L;
+    }
+
+    synchronized boolean isFailing() {
+        return failing;
+    }
+
+    /**
+     * Starts an outage that began before it was noticed, such as when the
+     * connection was last known to be alive.  Has no effect if an outage
+     * is already in progress.
+     */
+    synchronized void startOutage(long since) {
+        if (failing)
+            return;
+        failing = true;
+        outageStart = since;
+        attempts = 0;
+        outages++;
+    }
+
+    /**
+     * Records a failed connection, starting an outage if none is in
+     * progress.
+     * @return milliseconds to wait before the next attempt, or GIVE_UP
+     */
+    synchronized long failed(long now) {
+        startOutage(now);
+        long delay;
+        if (attempts == 0) {
+            delay = 0;
+        } else {
+            long cap = BASE_DELAY << Math.min(attempts - 1, 16);
+            delay = (long) (random.nextDouble() * Math.min(cap, MAX_DELAY));
+        }
+        if (deadline > 0) {
+            long remaining = outageStart + deadline - now;
+            if (remaining <= 0) {
+                failing = false;
+                failures++;
+                return GIVE_UP;
+            }
+            delay = Math.min(delay, remaining);
+        }
+        attempts++;
+        totalAttempts++;
+        return delay;
+    }
+
+    /**
+     * Records a successful connection, ending any outage.
+     */
+    synchronized void succeeded(long now) {
+        if (!failing)
+            return;
+        failing = false;
+        recoveries++;
+        lastRecoveryTime = now - outageStart;
+        maxRecoveryTime = Math.max(maxRecoveryTime, lastRecoveryTime);
+        totalRecoveryTime += lastRecoveryTime;
+    }
+
+    synchronized Stats getStats() {
+        return new Stats(totalAttempts, outages, recoveries, failures,
+                lastRecoveryTime,
+                recoveries > 0 ? totalRecoveryTime / recoveries : 0,
+                maxRecoveryTime);
+    }
+
+    /**
+     * A point-in-time summary of reconnection activity.
+     */
+    static class Stats {
+        // Connection attempts made while recovering from outages
+        final int attempts;
+        final int outages;
+        final int recoveries;
+        // Outages that ran past the deadline
+        final int failures;
+        // Times to recover, from the start of an outage to reconnection
+        final long lastRecoveryMs;
+        final long meanRecoveryMs;
+        final long maxRecoveryMs;
+
+        private Stats(int attempts, int outages, int recoveries,
+                int failures, long lastRecoveryMs, long meanRecoveryMs,
+                long maxRecoveryMs) {
+            this.attempts = attempts;
+            this.outages = outages;
+            this.recoveries = recoveries;
+            this.failures = failures;
+            this.lastRecoveryMs = lastRecoveryMs;
+            this.meanRecoveryMs = meanRecoveryMs;
+            this.maxRecoveryMs = maxRecoveryMs;
+        }
+
+        @Override
+        public String toString() {
+            return "attempts=" + attempts + " outages=" + outages +
+                    " recovered=" + recoveries + " failed=" + failures +
+                    " recovery last=" + lastRecoveryMs + "ms mean=" +
+                    meanRecoveryMs + "ms max=" + maxRecoveryMs + "ms";
+        }
+    }
+}
@@ -31,14 +31,12 @@
 
 package org.olivearchive.vmnetx.android;
 
-import java.io.IOException;
 import java.text.NumberFormat;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.text.InputType;
@@ -55,8 +53,7 @@ import android.widget.Toast;
 
 import org.olivearchive.vmnetx.android.input.RemoteKeyboard;
 import org.olivearchive.vmnetx.android.input.RemotePointer;
-import org.olivearchive.vmnetx.android.protocol.ClientProtocolEndpoint;
-import org.olivearchive.vmnetx.android.protocol.ControlConnectionProcessor;
+import org.olivearchive.vmnetx.android.protocol.ViewerConnectionProcessor;
 
 public class RemoteCanvas extends ImageView {
     private final static String TAG = "RemoteCanvas";
@@ -64,11 +61,10 @@ public class RemoteCanvas extends ImageView {
     // Connection parameters
     private ConnectionInfo connection;
 
-    // VMNetX control connection
-    private ControlConnectionProcessor controlConn;
-    private ClientProtocolEndpoint endpoint;
-    private String vmName = null;
-    private int vmState = Constants.VM_STATE_UNKNOWN;
+    // VMNetX control session.  Also read from the SPICE and viewer
+    // handshake threads, which must copy it before use, since it is
+    // cleared on disconnect.
+    private volatile SessionController session;
     
     // SPICE protocol connection
     private SpiceCommunicator spice = null;
@@ -137,19 +133,8 @@ public class RemoteCanvas extends ImageView {
         });
         pd.show();
         
-        startControlConnection();
-    }
-
-
-    private void startControlConnection() {
-        try {
-            controlConn = new ControlConnectionProcessor(connection.getAddress(), connection.getPort());
-            endpoint = new ClientProtocolEndpoint(controlConn, handler);
-            new Thread(controlConn).start();
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't create ControlConnectionProcessor", e);
-            showFatalMessageAndQuit(getContext().getString(R.string.error_connection_failed));
-        }
+        session = new SessionController(getContext(), connection, sessionListener);
+        session.start();
     }
 
 
@@ -158,7 +143,7 @@ public class RemoteCanvas extends ImageView {
      */
     private void startSpiceConnection() {
         try {
-            spice = new SpiceCommunicator(getContext(), this, handler, connection);
+            spice = new SpiceCommunicator(getContext(), this, session.getHandler(), connection);
             viewport = new Viewport(spice, this);
             pointer = new RemotePointer(spice, this);
             keyboard = new RemoteKeyboard(spice);
@@ -243,8 +228,7 @@ public class RemoteCanvas extends ImageView {
     }
     
     public void restartVM() {
-        endpoint.sendStopVM();
-        // VM_STATE_STOPPED handler will restart it
+        session.restartVM();
     }
     
     /**
@@ -261,13 +245,9 @@ public class RemoteCanvas extends ImageView {
         // Close the SPICE connection.
         if (spice != null)
             spice.disconnect();
-        // Close the control connection.
-        if (controlConn != null) {
-            try {
-                wantVMState(Constants.VM_STATE_DESTROYED);
-            } catch (IllegalStateException e) {}
-            controlConn.close();
-        }
+        // Destroy the VM and close the control connection.
+        if (session != null)
+            session.close();
 
         onDestroy();
     }
@@ -286,8 +266,7 @@ public class RemoteCanvas extends ImageView {
         screenMessage    = null;
         viewport         = null;
         spice            = null;
-        endpoint         = null;
-        controlConn      = null;
+        session          = null;
     }
     
     /**
@@ -333,7 +312,43 @@ public class RemoteCanvas extends ImageView {
     }
 
     public String getVMName() {
-        return vmName;
+        SessionController session = this.session;
+        return (session != null) ? session.getVMName() : null;
+    }
+
+    /**
+     * @return control connection round-trip statistics, or null if there
+     * is no session
+     */
+    public LatencyHistogram.Summary getRoundTripStats() {
+        SessionController session = this.session;
+        return (session != null) ? session.getRoundTripStats() : null;
+    }
+
+    /**
+     * Claims the viewer connection opened during startup, or one from the
+     * standby pool.
+     * @return false if there is none, in which case the listener won't be
+     * called
+     */
+    boolean takePreconnectedViewer(ViewerConnectionProcessor.Listener listener) {
+        SessionController session = this.session;
+        return session != null && session.takePreconnectedViewer(listener);
+    }
+
+    void viewerConnected() {
+        SessionController session = this.session;
+        if (session != null)
+            session.getStartupTimeline().mark(StartupTimeline.VIEWER_CONNECTED);
+    }
+
+    /**
+     * @return a ticket that lets viewer connections skip authentication,
+     * or null
+     */
+    String getResumeTicket() {
+        SessionController session = this.session;
+        return (session != null) ? session.getResumeTicket() : null;
     }
 
     /**
@@ -404,6 +419,9 @@ public class RemoteCanvas extends ImageView {
         // Notify that we have a connection.
         spiceUpdateReceived = true;
         handler.sendEmptyMessage(Constants.SPICE_CONNECT_SUCCESS);
+        SessionController session = this.session;
+        if (session != null)
+            session.getHandler().sendEmptyMessage(Constants.SPICE_CONNECT_SUCCESS);
     }
 
     void OnMouseMode(final boolean absoluteMouse) {
@@ -416,96 +434,46 @@ public class RemoteCanvas extends ImageView {
         handler.post(updateActivity);
     }
 
-    private void wantVMState(int wanted) {
-        // Only handle transitions for which we can usefully issue a
-        // command.  Other transitions will be handled after a
-        // subsequent event.
-        switch (wanted) {
-        case Constants.VM_STATE_RUNNING:
-            if (vmState == Constants.VM_STATE_STOPPED) {
-                endpoint.sendStartVM();
-                vmState = Constants.VM_STATE_STARTING;
-            }
-            break;
-
-        case Constants.VM_STATE_STOPPED:
-            if (vmState == Constants.VM_STATE_STARTING || vmState == Constants.VM_STATE_RUNNING) {
-                endpoint.sendStopVM();
-                vmState = Constants.VM_STATE_STOPPING;
-            }
-            break;
-
-        case Constants.VM_STATE_DESTROYED:
-            if (vmState != Constants.VM_STATE_DESTROYED) {
-                endpoint.sendDestroyVM();
-                vmState = Constants.VM_STATE_DESTROYED;
-            }
-            break;
-        }
-    }
-
-
-    private class PingerRunnable implements Runnable {
-        private static final int INTERVAL = 3000;
-        private static final int COUNT = 3;
-
-        private int outstanding = 0;
-        private long lastAlive = System.nanoTime();
-
-        public void start() {
-            stop();
-            lastAlive = System.nanoTime();
-            schedule();
-        }
-
-        public void stop() {
-            handler.removeCallbacks(this);
-            outstanding = 0;
-        }
-
-        public void pong() {
-            outstanding = 0;
-            lastAlive = System.nanoTime();
+    /**
+     * Receives view updates from the control session.
+     */
+    private final SessionController.Listener sessionListener =
+            new SessionController.Listener() {
+        @Override
+        public void onSessionUpdated() {
+            // Update window title
+            if (updateActivity != null)
+                updateActivity.run();
         }
 
-        private void schedule() {
-            handler.postDelayed(this, INTERVAL);
+        @Override
+        public void onStartupProgress(double progress) {
+            if (pd.isIndeterminate() && progress > 0) {
+                pd.setIndeterminate(false);
+                pd.setProgressPercentFormat(NumberFormat.getPercentInstance());
+            }
+            pd.setProgress((int) (progress * pd.getMax()));
         }
 
         @Override
-        public void run() {
-            if (outstanding < COUNT) {
-                endpoint.sendPing();
-                outstanding += 1;
-                schedule();
-            } else {
-                Log.w(TAG, "Control connection timed out");
-                controlConn.close();
-            }
+        public void onStartViewer() {
+            if (maintainConnection)
+                startSpiceConnection();
         }
 
-        public long getSecondsSinceAlive() {
-            return ((System.nanoTime() - lastAlive) / (long) 1e9);
+        @Override
+        public void onFatalError(String error) {
+            showFatalMessageAndQuit(error);
         }
     };
-    private final PingerRunnable pinger = new PingerRunnable();
 
 
     /** 
-     * Handler for connection events.
+     * Handler for SPICE connection events.
      */
     private final Handler handler = new Handler() {
-        private int serverTimeout;
-
-        private void showProtocolErrorAndQuit(String error) {
-            showFatalMessageAndQuit(getContext().getString(R.string.error_protocol) + " " + error);
-        }
-
         @Override
         public void handleMessage(Message msg) {
-            Bundle args = msg.getData();
-            String error;
-
             switch (msg.what) {
             case Constants.SPICE_CONNECT_SUCCESS:
                 if (pd != null && pd.isShowing()) {
@@ -513,129 +481,6 @@ public class RemoteCanvas extends ImageView {
                 }
                 break;
 
-            case Constants.SPICE_CONNECT_FAILURE:
-                // Data connection failed; retry
-                if (maintainConnection) {
-                    handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            startSpiceConnection();
-                        }
-                    }, 1000);
-                }
-                break;
-
-            case Constants.PROTOCOL_CONNECTED:
-                Log.d(TAG, "connected");
-                endpoint.sendAuthenticate(connection.getToken());
-                break;
-
-            case Constants.PROTOCOL_ERROR:
-                error = args.getString(Constants.ARG_ERROR);
-                Log.d(TAG, "error " + error);
-                showProtocolErrorAndQuit(error);
-                break;
-
-            case Constants.PROTOCOL_DISCONNECTED:
-                Log.d(TAG, "disconnected");
-                vmState = Constants.VM_STATE_UNKNOWN;
-                pinger.stop();
-                if (maintainConnection) {
-                    if (serverTimeout == 0 ||
-                            pinger.getSecondsSinceAlive() <= serverTimeout) {
-                        handler.postDelayed(new Runnable() {
-                            @Override
-                            public void run() {
-                                startControlConnection();
-                            }
-                        }, 1000);
-                    } else {
-                        showFatalMessageAndQuit(getContext().getString(R.string.error_connection_failed));
-                    }
-                }
-                break;
-
-            case Constants.CLIENT_PROTOCOL_AUTH_OK:
-                vmName = args.getString(Constants.ARG_VM_NAME);
-                vmState = args.getInt(Constants.ARG_VM_STATE);
-                int maxMouseRate = args.getInt(Constants.ARG_MAX_MOUSE_RATE);
-                int serverTimeoutMin = args.getInt(Constants.ARG_SERVER_TIMEOUT_MIN);
-                serverTimeout = args.getInt(Constants.ARG_SERVER_TIMEOUT_MAX);
-                Log.d(TAG, "auth ok " + vmName + " " + Integer.toString(vmState) + " " + Integer.toString(maxMouseRate) + " " + Integer.toString(serverTimeoutMin) + " " + Integer.toString(serverTimeout));
-
-                // Start pinging
-                pinger.start();
-
-                // Update window title
-                post(updateActivity);
-
-                // If the VM is in a stable state, synthesize a state transition.
-                switch (vmState) {
-                case Constants.VM_STATE_RUNNING:
-                    Bundle bundle = new Bundle();
-                    bundle.putBoolean(Constants.ARG_CHECK_DISPLAY, false);
-                    Message message = handler.obtainMessage(Constants.CLIENT_PROTOCOL_VM_STARTED);
-                    message.setData(bundle);
-                    handler.sendMessage(message);
-                    break;
-                case Constants.VM_STATE_STOPPED:
-                    handler.sendEmptyMessage(Constants.CLIENT_PROTOCOL_VM_STOPPED);
-                    break;
-                }
-                break;
-
-            case Constants.CLIENT_PROTOCOL_AUTH_FAILED:
-                error = args.getString(Constants.ARG_ERROR);
-                Log.d(TAG, "auth failed " + error);
-                showProtocolErrorAndQuit(error);
-                break;
-
-            case Constants.CLIENT_PROTOCOL_STARTUP_PROGRESS:
-                double progress = args.getDouble(Constants.ARG_PROGRESS);
-                if (pd.isIndeterminate() && progress > 0) {
-                    pd.setIndeterminate(false);
-                    pd.setProgressPercentFormat(NumberFormat.getPercentInstance());
-                }
-                pd.setProgress((int) (progress * pd.getMax()));
-                break;
-
-            case Constants.CLIENT_PROTOCOL_STARTUP_REJECTED_MEMORY:
-                Log.d(TAG, "rejected memory");
-                break;
-
-            case Constants.CLIENT_PROTOCOL_STARTUP_FAILED:
-                error = args.getString(Constants.ARG_ERROR);
-                Log.d(TAG, "startup failed " + error);
-                showProtocolErrorAndQuit(error);
-                break;
-
-            case Constants.CLIENT_PROTOCOL_VM_STARTED:
-                boolean checkDisplay = args.getBoolean(Constants.ARG_CHECK_DISPLAY);
-                Log.d(TAG, "VM started, check: " + Boolean.toString(checkDisplay));
-                vmState = Constants.VM_STATE_RUNNING;
-                if (spice == null)
-                    startSpiceConnection();
-                break;
-
-            case Constants.CLIENT_PROTOCOL_VM_STOPPED:
-                Log.d(TAG, "VM stopped");
-                vmState = Constants.VM_STATE_STOPPED;
-                wantVMState(Constants.VM_STATE_RUNNING);
-                break;
-
-            case Constants.CLIENT_PROTOCOL_VM_DESTROYED:
-                Log.d(TAG, "VM destroyed");
-                vmState = Constants.VM_STATE_DESTROYED;
-                if (maintainConnection) {
-                    showFatalMessageAndQuit(getContext().getString(R.string.error_vm_terminated));
-                }
-                break;
-
-            case Constants.CLIENT_PROTOCOL_PONG:
-                //Log.d(TAG, "pong!");
-                pinger.pong();
-                break;
-
             default:
                 Log.w(TAG, "Handler received unknown message " + Integer.toString(msg.what));
                 break;
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import org.olivearchive.vmnetx.android.protocol.ClientProtocolEndpoint;
+import org.olivearchive.vmnetx.android.protocol.ControlConnectionProcessor;
+import org.olivearchive.vmnetx.android.protocol.Messages;
+import org.olivearchive.vmnetx.android.protocol.ViewerConnectionProcessor;
+
+/**
+ * Runs the control session on its own thread: the control connection, VM
+ * state transitions, keepalives and reconnects.  Only view updates are
+ * posted to the UI thread, so UI load can't delay pings or reconnects.
+ */
+class SessionController {
+    private final static String TAG = "SessionController";
+    // arg1 of protocol events posted by the session itself rather than
+    // received from the server
+    private final static int SYNTHESIZED = 1;
+
+    /**
+     * Callbacks for view updates.  All are invoked on the UI thread.
+     */
+    interface Listener {
+        // The VM name is known or has changed
+        void onSessionUpdated();
+        void onStartupProgress(double fraction);
+        // The VM is running; start or restart the SPICE connection
+        void onStartViewer();
+        void onFatalError(String error);
+    }
+
+    private final Context context;
+    private final ConnectionInfo connection;
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    // Session thread state
+    private ControlConnectionProcessor controlConn;
+    private ClientProtocolEndpoint endpoint;
+    private int vmState = Constants.VM_STATE_UNKNOWN;
+    private int serverTimeout;
+    private boolean viewerStarted = false;
+    private boolean closed = false;
+
+    private volatile String vmName = null;
+    private volatile double progress;
+    // From the last auth-ok, if the server issues them
+    private volatile String resumeTicket;
+
+    // Control connection round-trip times, measured by the pinger
+    private final LatencyHistogram rtt = new LatencyHistogram();
+
+    // Retry schedules for the control and SPICE connections
+    private final ReconnectPolicy controlReconnect = new ReconnectPolicy();
+    private final ReconnectPolicy viewerReconnect = new ReconnectPolicy();
+
+    private final StartupTimeline timeline = new StartupTimeline();
+    // Only with the startup pipeline enabled
+    private final ViewerPreconnector preconnector;
+    // Viewer connections on standby for new SPICE channels; only with the
+    // standby pool enabled
+    private final ViewerPool pool;
+
+    SessionController(Context context, ConnectionInfo connection,
+            Listener listener) {
+        this.context = context;
+        this.connection = connection;
+        this.listener = listener;
+        preconnector = BuildConfig.STARTUP_PIPELINE ?
+                new ViewerPreconnector(connection) : null;
+        pool = BuildConfig.STANDBY_POOL ? new ViewerPool(connection) : null;
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                SessionController.this.handleMessage(msg);
+            }
+        };
+    }
+
+    /**
+     * @return the Handler that receives SPICE connection events
+     */
+    Handler getHandler() {
+        return handler;
+    }
+
+    String getVMName() {
+        return vmName;
+    }
+
+    /**
+     * @return round-trip times of the control connection over the whole
+     * session, across reconnects
+     */
+    LatencyHistogram.Summary getRoundTripStats() {
+        return rtt.getSummary();
+    }
+
+    /**
+     * @return a ticket that lets a new connection skip authentication, or
+     * null
+     */
+    String getResumeTicket() {
+        return resumeTicket;
+    }
+
+    StartupTimeline getStartupTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Claims the viewer connection opened during startup, or one from the
+     * standby pool.
+     * @return false if there is none, in which case the listener won't be
+     * called
+     */
+    boolean takePreconnectedViewer(ViewerConnectionProcessor.Listener listener) {
+        if (preconnector != null && preconnector.take(listener)) {
+            if (pool != null)
+                pool.channelOpened();
+            return true;
+        }
+        return pool != null && pool.take(listener);
+    }
+
+    ReconnectPolicy.Stats getControlReconnectStats() {
+        return controlReconnect.getStats();
+    }
+
+    ReconnectPolicy.Stats getViewerReconnectStats() {
+        return viewerReconnect.getStats();
+    }
+
+    void start() {
+        // When the VM is already running, the viewer handshake can
+        // overlap the control one
+        if (preconnector != null)
+            preconnector.start();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                startControlConnection();
+            }
+        });
+    }
+
+    void restartVM() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // VM_STATE_STOPPED handler will restart it
+                if (endpoint != null)
+                    endpoint.sendStopVM();
+            }
+        });
+    }
+
+    /**
+     * Destroys the VM and closes the control connection.  The session
+     * thread exits once the connection is down.
+     */
+    void close() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (closed)
+                    return;
+                closed = true;
+                pinger.stop();
+                if (preconnector != null)
+                    preconnector.cancel();
+                if (pool != null)
+                    pool.stop();
+                handler.removeCallbacksAndMessages(null);
+                if (controlConn != null) {
+                    try {
+                        wantVMState(Constants.VM_STATE_DESTROYED);
+                    } catch (IllegalStateException e) {}
+                    controlConn.close();
+                    // PROTOCOL_DISCONNECTED will stop the thread
+                } else {
+                    thread.quit();
+                }
+            }
+        });
+    }
+
+    private void startControlConnection() {
+        try {
+            controlConn = new ControlConnectionProcessor(connection.getAddress(), connection.getPort());
+            endpoint = new ClientProtocolEndpoint(controlConn, handler);
+            new Thread(controlConn).start();
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't create ControlConnectionProcessor", e);
+            controlConn = null;
+            endpoint = null;
+            fatal(context.getString(R.string.error_connection_failed));
+        }
+    }
+
+    private void wantVMState(int wanted) {
+        // Only handle transitions for which we can usefully issue a
+        // command.  Other transitions will be handled after a
+        // subsequent event.
+        switch (wanted) {
+        case Constants.VM_STATE_RUNNING:
+            if (vmState == Constants.VM_STATE_STOPPED) {
+                endpoint.sendStartVM();
+                vmState = Constants.VM_STATE_STARTING;
+            }
+            break;
+
+        case Constants.VM_STATE_STOPPED:
+            if (vmState == Constants.VM_STATE_STARTING || vmState == Constants.VM_STATE_RUNNING) {
+                endpoint.sendStopVM();
+                vmState = Constants.VM_STATE_STOPPING;
+            }
+            break;
+
+        case Constants.VM_STATE_DESTROYED:
+            if (vmState != Constants.VM_STATE_DESTROYED) {
+                endpoint.sendDestroyVM();
+                vmState = Constants.VM_STATE_DESTROYED;
+            }
+            break;
+        }
+    }
+
+    private final Runnable startControlConnection = new Runnable() {
+        @Override
+        public void run() {
+            startControlConnection();
+        }
+    };
+
+    private final Runnable startViewer = new Runnable() {
+        @Override
+        public void run() {
+            startViewer();
+        }
+    };
+
+    private void startViewer() {
+        timeline.mark(StartupTimeline.VIEWER_REQUESTED);
+        if (pool != null)
+            pool.newViewer();
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onStartViewer();
+            }
+        });
+    }
+
+    private void fatal(final String error) {
+        if (closed)
+            return;
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFatalError(error);
+            }
+        });
+    }
+
+    private void protocolError(String error) {
+        fatal(context.getString(R.string.error_protocol) + " " + error);
+    }
+
+    private final Runnable sessionUpdated = new Runnable() {
+        @Override
+        public void run() {
+            listener.onSessionUpdated();
+        }
+    };
+
+    // Coalesces progress updates that arrive faster than the UI thread
+    // handles them
+    private final Runnable progressUpdated = new Runnable() {
+        @Override
+        public void run() {
+            listener.onStartupProgress(progress);
+        }
+    };
+
+    private class PingerRunnable implements Runnable {
+        // Pings outstanding at once are normally bounded by
+        // KeepaliveScheduler.PROBES, but a ping sent before unrelated
+        // traffic reset the scheduler may still be awaiting its pong
+        private static final int SLOTS = 8;
+
+        private final KeepaliveScheduler scheduler = new KeepaliveScheduler();
+
+        // Send times of outstanding pings, oldest first.  Pongs carry no
+        // identifier, but arrive in the order the pings were sent.
+        private final long[] sent = new long[SLOTS];
+        private int oldest = 0;
+        private int outstanding = 0;
+        // Pongs whose send times were dropped from a full ring
+        private int unmatched = 0;
+        private long lastAlive = System.nanoTime();
+
+        public void start(int serverTimeoutMin) {
+            stop();
+            lastAlive = System.nanoTime();
+            scheduler.setServerTimeout(serverTimeoutMin);
+            scheduler.reset(lastAlive / 1000000);
+            schedule(lastAlive / 1000000);
+        }
+
+        public void stop() {
+            handler.removeCallbacks(this);
+            outstanding = 0;
+            unmatched = 0;
+        }
+
+        // Any message from the server shows that the connection is up,
+        // so pings are only needed when it is otherwise quiet.  The
+        // pending run() will find it has nothing to do and reschedule.
+        public void alive() {
+            lastAlive = System.nanoTime();
+            scheduler.onInbound(lastAlive / 1000000);
+        }
+
+        public void pong() {
+            long now = System.nanoTime();
+            if (unmatched > 0) {
+                unmatched -= 1;
+            } else if (outstanding > 0) {
+                long elapsed = now - sent[oldest];
+                rtt.record(elapsed / 1000);
+                scheduler.onRoundTrip(elapsed / 1000000);
+                oldest = (oldest + 1) % SLOTS;
+                outstanding -= 1;
+            }
+            alive();
+        }
+
+        private void schedule(long now) {
+            handler.postDelayed(this, scheduler.getDelay(now));
+        }
+
+        @Override
+        public void run() {
+            long nanos = System.nanoTime();
+            long now = nanos / 1000000;
+            switch (scheduler.poll(now)) {
+            case KeepaliveScheduler.PING:
+                if (outstanding == SLOTS) {
+                    oldest = (oldest + 1) % SLOTS;
+                    outstanding -= 1;
+                    unmatched += 1;
+                }
+                sent[(oldest + outstanding) % SLOTS] = nanos;
+                endpoint.sendPing();
+                outstanding += 1;
+                schedule(now);
+                break;
+
+            case KeepaliveScheduler.DEAD:
+                Log.w(TAG, "Control connection timed out");
+                controlConn.close();
+                break;
+
+            default:
+                schedule(now);
+                break;
+            }
+        }
+
+        public long getLastAlive() {
+            return lastAlive / 1000000;
+        }
+    };
+    private final PingerRunnable pinger = new PingerRunnable();
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private void handleMessage(Message msg) {
+        String error;
+        long delay;
+
+        switch (msg.what) {
+        case Constants.SPICE_CONNECT_SUCCESS:
+            if (timeline.mark(StartupTimeline.DISPLAY_READY))
+                Log.i(TAG, "startup " + timeline);
+            break;
+        case Constants.SPICE_CONNECT_FAILURE:
+        case Constants.PROTOCOL_CONNECTED:
+        case Constants.PROTOCOL_DISCONNECTED:
+            break;
+        default:
+            // Every other event is a message from the server, unless we
+            // posted it
+            if (msg.arg1 != SYNTHESIZED)
+                pinger.alive();
+            break;
+        }
+
+        switch (msg.what) {
+        case Constants.SPICE_CONNECT_SUCCESS:
+            if (viewerReconnect.isFailing()) {
+                viewerReconnect.succeeded(now());
+                Log.d(TAG, "viewer reconnected, " + viewerReconnect.getStats());
+            }
+            break;
+
+        case Constants.SPICE_CONNECT_FAILURE:
+            // Data connection failed; retry
+            if (!closed) {
+                delay = viewerReconnect.failed(now());
+                if (delay == ReconnectPolicy.GIVE_UP)
+                    fatal(context.getString(R.string.error_connection_failed));
+                else
+                    handler.postDelayed(startViewer, delay);
+            }
+            break;
+
+        case Constants.PROTOCOL_CONNECTED:
+            Log.d(TAG, "connected");
+            timeline.mark(StartupTimeline.CONTROL_CONNECTED);
+            if (resumeTicket != null)
+                endpoint.sendResume(resumeTicket, false);
+            else
+                endpoint.sendAuthenticate(connection.getToken());
+            break;
+
+        case Constants.CLIENT_PROTOCOL_RESUME_FAILED:
+            // The ticket expired; fall back to the token
+            Log.d(TAG, "resume failed " + ((Messages.AuthFailed) msg.obj).error);
+            resumeTicket = null;
+            endpoint.sendAuthenticate(connection.getToken());
+            break;
+
+        case Constants.PROTOCOL_ERROR:
+            error = ((Messages.ServerError) msg.obj).message;
+            Log.d(TAG, "error " + error);
+            protocolError(error);
+            break;
+
+        case Constants.PROTOCOL_DISCONNECTED:
+            Log.d(TAG, "disconnected, round trip " + rtt.getSummary());
+            controlConn = null;
+            endpoint = null;
+            vmState = Constants.VM_STATE_UNKNOWN;
+            pinger.stop();
+            if (pool != null)
+                pool.stop();
+            if (closed) {
+                thread.quit();
+                break;
+            }
+            // The server starts its timeout when it last heard from us
+            controlReconnect.startOutage(pinger.getLastAlive());
+            delay = controlReconnect.failed(now());
+            if (delay == ReconnectPolicy.GIVE_UP)
+                fatal(context.getString(R.string.error_connection_failed));
+            else
+                handler.postDelayed(startControlConnection, delay);
+            break;
+
+        case Constants.CLIENT_PROTOCOL_AUTH_OK:
+            Messages.AuthOk authOk = (Messages.AuthOk) msg.obj;
+            vmName = authOk.name;
+            vmState = authOk.vmState;
+            serverTimeout = authOk.serverTimeoutMax;
+            resumeTicket = authOk.resumeTicket;
+            timeline.mark(StartupTimeline.AUTHENTICATED);
+            controlReconnect.setDeadline(serverTimeout);
+            viewerReconnect.setDeadline(serverTimeout);
+            if (controlReconnect.isFailing()) {
+                controlReconnect.succeeded(now());
+                Log.d(TAG, "reconnected, " + controlReconnect.getStats());
+            }
+            Log.d(TAG, "auth ok " + vmName + " " + Integer.toString(vmState) + " " + Integer.toString(authOk.maxMouseRate) + " " + Integer.toString(authOk.serverTimeoutMin) + " " + Integer.toString(serverTimeout));
+
+            // Start pinging
+            pinger.start(authOk.serverTimeoutMin);
+
+            // Update window title
+            uiHandler.post(sessionUpdated);
+
+            // If the VM is in a stable state, synthesize a state transition.
+            switch (vmState) {
+            case Constants.VM_STATE_RUNNING:
+                handler.sendMessage(handler.obtainMessage(
+                        Constants.CLIENT_PROTOCOL_VM_STARTED, SYNTHESIZED, 0,
+                        new Messages.VmStarted(false)));
+                break;
+            case Constants.VM_STATE_STOPPED:
+                handler.sendMessage(handler.obtainMessage(
+                        Constants.CLIENT_PROTOCOL_VM_STOPPED, SYNTHESIZED, 0));
+                break;
+            }
+            break;
+
+        case Constants.CLIENT_PROTOCOL_AUTH_FAILED:
+            error = ((Messages.AuthFailed) msg.obj).error;
+            Log.d(TAG, "auth failed " + error);
+            protocolError(error);
+            break;
+
+        case Constants.CLIENT_PROTOCOL_STARTUP_PROGRESS:
+            progress = ((Messages.StartupProgress) msg.obj).fraction;
+            uiHandler.removeCallbacks(progressUpdated);
+            uiHandler.post(progressUpdated);
+            break;
+
+        case Constants.CLIENT_PROTOCOL_STARTUP_REJECTED_MEMORY:
+            Log.d(TAG, "rejected memory");
+            break;
+
+        case Constants.CLIENT_PROTOCOL_STARTUP_FAILED:
+            error = ((Messages.StartupFailed) msg.obj).message;
+            Log.d(TAG, "startup failed " + error);
+            protocolError(error);
+            break;
+
+        case Constants.CLIENT_PROTOCOL_VM_STARTED:
+            boolean checkDisplay = ((Messages.VmStarted) msg.obj).checkDisplay;
+            Log.d(TAG, "VM started, check: " + Boolean.toString(checkDisplay));
+            vmState = Constants.VM_STATE_RUNNING;
+            if (pool != null)
+                pool.start();
+            if (!viewerStarted) {
+                viewerStarted = true;
+                startViewer();
+            }
+            break;
+
+        case Constants.CLIENT_PROTOCOL_VM_STOPPED:
+            Log.d(TAG, "VM stopped");
+            vmState = Constants.VM_STATE_STOPPED;
+            if (pool != null)
+                pool.stop();
+            wantVMState(Constants.VM_STATE_RUNNING);
+            break;
+
+        case Constants.CLIENT_PROTOCOL_VM_DESTROYED:
+            Log.d(TAG, "VM destroyed");
+            vmState = Constants.VM_STATE_DESTROYED;
+            if (pool != null)
+                pool.stop();
+            if (!closed) {
+                fatal(context.getString(R.string.error_vm_terminated));
+            }
+            break;
+
+        case Constants.CLIENT_PROTOCOL_PONG:
+            //Log.d(TAG, "pong!");
+            pinger.pong();
+            break;
+
+        default:
+            Log.w(TAG, "Handler received unknown message " + Integer.toString(msg.what));
+            break;
+        }
+    }
+}
@@ -28,7 +28,6 @@ import android.view.MotionEvent;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.freedesktop.gstreamer.GStreamer;
 
-import org.olivearchive.vmnetx.android.protocol.ProtocolException;
 import org.olivearchive.vmnetx.android.protocol.ViewerConnectionProcessor;
 
 public class SpiceCommunicator {
@@ -120,23 +119,24 @@ public class SpiceCommunicator {
         }
     }
 
-    private class ConnectThread extends Thread {
-        private long cookie;
+    private class ViewerListener
+            implements ViewerConnectionProcessor.Listener {
+        private final long cookie;
 
-        public ConnectThread(long cookie) {
+        public ViewerListener(long cookie) {
             this.cookie = cookie;
         }
 
-        public void run() {
-            try {
-                int fd = new ViewerConnectionProcessor(connection.getAddress(),
-                                                       Integer.toString(connection.getPort()),
-                                                       connection.getToken()).connect();
-                SpiceSetFd(cookie, fd);
-            } catch (ProtocolException e) {
-                android.util.Log.e(TAG, "Get FD failed", e);
-                disconnect();
-            }
+        @Override
+        public void onViewerConnected(int fd) {
+            canvas.viewerConnected();
+            SpiceSetFd(cookie, fd);
+        }
+
+        @Override
+        public void onViewerFailed() {
+            android.util.Log.e(TAG, "Get FD failed");
+            disconnect();
         }
     }
 
@@ -202,7 +202,13 @@ public class SpiceCommunicator {
 
     /* Callbacks from jni */
     private void OnGetFd(long cookie) {
-        new ConnectThread(cookie).start();
+        // The handshake completes asynchronously
+        ViewerListener listener = new ViewerListener(cookie);
+        if (!canvas.takePreconnectedViewer(listener)) {
+            new ViewerConnectionProcessor(connection.getAddress(),
+                    connection.getPort(), connection.getToken(),
+                    canvas.getResumeTicket()).connect(listener);
+        }
     }
 
     private void OnSettingsChanged(int width, int height) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+/**
+ * Times the phases of session startup, from the start of the control
+ * connection to the first display update.  Each phase is recorded the
+ * first time it is reached; reconnects don't overwrite it.  Thread-safe.
+ */
+class StartupTimeline {
+    static final int CONTROL_CONNECTED = 0;
+    static final int AUTHENTICATED = 1;
+    static final int VIEWER_REQUESTED = 2;
+    static final int VIEWER_CONNECTED = 3;
+    static final int DISPLAY_READY = 4;
+
+    private static final String[] NAMES = {
+        "control", "auth", "viewer-req", "viewer-fd", "display",
+    };
+
+    private final long start = System.nanoTime();
+    private final long[] elapsed = new long[NAMES.length];
+
+    StartupTimeline() {
+        for (int i = 0; i < elapsed.length; i++)
+            elapsed[i] = -1;
+    }
+
+    /**
+     * @return true if this is the first time the phase was reached
+     */
+    synchronized boolean mark(int phase) {
+        if (elapsed[phase] != -1)
+            return false;
+        elapsed[phase] = (System.nanoTime() - start) / 1000000;
+        return true;
+    }
+
+    /**
+     * @return milliseconds from startup to the phase, or -1 if it hasn't
+     * been reached
+     */
+    synchronized long get(int phase) {
+        return elapsed[phase];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < elapsed.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(NAMES[i]).append('=');
+            if (elapsed[i] == -1)
+                sb.append('-');
+            else
+                sb.append(elapsed[i]).append("ms");
+        }
+        return sb.toString();
+    }
+}
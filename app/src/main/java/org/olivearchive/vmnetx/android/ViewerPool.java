@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+import org.olivearchive.vmnetx.android.protocol.ViewerConnectionProcessor;
+
+/**
+ * Keeps a few authenticated viewer connections on standby while the VM is
+ * running, so that when SPICE opens a channel it only has to wait for the
+ * attach.  Connections taken from the pool are replaced in the background.
+ * The pool is sized from the number of channels the last SPICE connection
+ * to the same server opened.
+ */
+class ViewerPool implements ViewerConnectionProcessor.StandbyListener {
+    private static final String TAG = "ViewerPool";
+
+    private static final int MAX_SIZE = 8;
+
+    // Channels opened by the last SPICE connection to each server, for
+    // sessions started later in the same process
+    private static final Map<String, Integer> lastChannels =
+            new HashMap<String, Integer>();
+
+    private final ConnectionInfo connection;
+    private final String key;
+
+    private final ArrayDeque<ViewerConnectionProcessor> idle =
+            new ArrayDeque<ViewerConnectionProcessor>();
+    // Connections still being set up.  Tracked rather than counted, since
+    // a connection that has left the pool can still report being lost.
+    private final Set<ViewerConnectionProcessor> pending =
+            new HashSet<ViewerConnectionProcessor>();
+    private int size;
+    // Channels opened by the current SPICE connection
+    private int channels = 0;
+    private boolean running = false;
+
+    ViewerPool(ConnectionInfo connection) {
+        this.connection = connection;
+        key = connection.getAddress() + ":" +
+                Integer.toString(connection.getPort());
+        synchronized (lastChannels) {
+            Integer last = lastChannels.get(key);
+            size = last != null ? last : 0;
+        }
+    }
+
+    // The VM is running; fill the pool
+    void start() {
+        synchronized (this) {
+            running = true;
+        }
+        fill();
+    }
+
+    // The VM or the control connection is down; empty the pool
+    void stop() {
+        ViewerConnectionProcessor[] conns;
+        synchronized (this) {
+            running = false;
+            conns = idle.toArray(new ViewerConnectionProcessor[idle.size()]);
+            idle.clear();
+        }
+        for (ViewerConnectionProcessor conn : conns)
+            conn.close();
+    }
+
+    // A new SPICE connection is starting
+    synchronized void newViewer() {
+        if (channels > 0)
+            setSize(channels);
+        channels = 0;
+    }
+
+    /**
+     * Attaches a pooled connection for a new SPICE channel.
+     * @return false if the pool is empty, in which case the listener won't
+     * be called
+     */
+    boolean take(final ViewerConnectionProcessor.Listener listener) {
+        ViewerConnectionProcessor conn;
+        synchronized (this) {
+            channelOpened();
+            conn = idle.poll();
+        }
+        if (conn == null) {
+            fill();
+            return false;
+        }
+        conn.attach(new ViewerConnectionProcessor.Listener() {
+            @Override
+            public void onViewerConnected(int fd) {
+                listener.onViewerConnected(fd);
+            }
+
+            @Override
+            public void onViewerFailed() {
+                // Lost while on standby; connect from scratch
+                Log.d(TAG, "Pooled connection failed");
+                newConnection().connect(listener);
+            }
+        });
+        fill();
+        return true;
+    }
+
+    // Counts a SPICE channel
+    synchronized void channelOpened() {
+        channels++;
+        if (channels > size)
+            setSize(channels);
+    }
+
+    @Override
+    public void onViewerStandby(ViewerConnectionProcessor conn) {
+        synchronized (this) {
+            pending.remove(conn);
+            if (running && idle.size() < size) {
+                idle.add(conn);
+                return;
+            }
+        }
+        conn.close();
+    }
+
+    @Override
+    public synchronized void onViewerLost(ViewerConnectionProcessor conn) {
+        // Not refilled until the next take(), so that a server that keeps
+        // dropping us isn't flooded with connections.  A connection that
+        // has already left the pool, by take() or by overflowing it, is in
+        // neither set.
+        if (!idle.remove(conn))
+            pending.remove(conn);
+    }
+
+    private void fill() {
+        ViewerConnectionProcessor[] conns;
+        synchronized (this) {
+            if (!running)
+                return;
+            int count = size - idle.size() - pending.size();
+            if (count <= 0)
+                return;
+            conns = new ViewerConnectionProcessor[count];
+            for (int i = 0; i < count; i++) {
+                conns[i] = newConnection();
+                pending.add(conns[i]);
+            }
+        }
+        for (ViewerConnectionProcessor conn : conns)
+            conn.prepare(this);
+    }
+
+    private void setSize(int channels) {
+        size = Math.min(channels, MAX_SIZE);
+        synchronized (lastChannels) {
+            lastChannels.put(key, size);
+        }
+    }
+
+    private ViewerConnectionProcessor newConnection() {
+        return new ViewerConnectionProcessor(connection.getAddress(),
+                connection.getPort(), connection.getToken(), null);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android;
+
+import java.io.IOException;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.olivearchive.vmnetx.android.protocol.ViewerConnectionProcessor;
+
+/**
+ * Opens and attaches one viewer connection while the control connection is
+ * still authenticating, so that it is ready by the time SPICE asks for its
+ * main channel.  If auth-ok reports that the VM isn't running, the viewer
+ * connection gives up on its own and is dropped, and SPICE connects
+ * normally once the VM has started.
+ */
+class ViewerPreconnector implements ViewerConnectionProcessor.Listener {
+    private static final String TAG = "ViewerPreconnector";
+
+    // The server may give up on an attached connection that stays idle
+    private static final long MAX_AGE = 10000;
+
+    private final ConnectionInfo connection;
+
+    private boolean done = false;
+    // Taken or cancelled; the connection won't be handed out any more
+    private boolean claimed = false;
+    private int fd = -1;
+    private long readyTime;
+    // A taker waiting for the connection to finish
+    private ViewerConnectionProcessor.Listener waiter;
+
+    ViewerPreconnector(ConnectionInfo connection) {
+        this.connection = connection;
+    }
+
+    void start() {
+        newConnection().connect(this);
+    }
+
+    private ViewerConnectionProcessor newConnection() {
+        return new ViewerConnectionProcessor(connection.getAddress(),
+                connection.getPort(), connection.getToken(), null);
+    }
+
+    @Override
+    public void onViewerConnected(int fd) {
+        finish(fd);
+    }
+
+    @Override
+    public void onViewerFailed() {
+        Log.d(TAG, "Preconnect failed");
+        finish(-1);
+    }
+
+    private void finish(int result) {
+        ViewerConnectionProcessor.Listener listener;
+        synchronized (this) {
+            done = true;
+            readyTime = SystemClock.uptimeMillis();
+            listener = waiter;
+            waiter = null;
+            if (listener == null) {
+                if (claimed)
+                    close(result);
+                else
+                    fd = result;
+                return;
+            }
+        }
+        // Someone is already waiting; if we failed, connect for them
+        if (result != -1)
+            listener.onViewerConnected(result);
+        else
+            newConnection().connect(listener);
+    }
+
+    /**
+     * Claims the preconnected viewer connection.  If it is still being set
+     * up, the listener is called once it is ready.
+     * @return false if there is no connection to claim, in which case the
+     * listener won't be called
+     */
+    boolean take(ViewerConnectionProcessor.Listener listener) {
+        int result;
+        synchronized (this) {
+            if (claimed)
+                return false;
+            claimed = true;
+            if (!done) {
+                waiter = listener;
+                return true;
+            }
+            result = fd;
+            fd = -1;
+            if (result != -1 && SystemClock.uptimeMillis() - readyTime > MAX_AGE) {
+                close(result);
+                result = -1;
+            }
+        }
+        if (result == -1)
+            return false;
+        listener.onViewerConnected(result);
+        return true;
+    }
+
+    synchronized void cancel() {
+        claimed = true;
+        waiter = null;
+        close(fd);
+        fd = -1;
+    }
+
+    private static void close(int fd) {
+        if (fd == -1)
+            return;
+        try {
+            ParcelFileDescriptor.adoptFd(fd).close();
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't close viewer connection", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A bounded, thread-safe free list of equally sized heap buffers.
+class BufferPool {
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Returns a cleared buffer of at least bufferSize bytes.
+    ByteBuffer obtain() {
+        ByteBuffer buf = free.poll();
+        if (buf == null)
+            return ByteBuffer.allocate(bufferSize);
+        count.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    // Buffers that have been replaced by larger ones are dropped rather
+    // than kept, so the pool never pins more than
+    // maxBuffers * bufferSize bytes.
+    void recycle(ByteBuffer buf) {
+        if (buf.capacity() != bufferSize || buf.isDirect())
+            return;
+        if (count.incrementAndGet() > maxBuffers) {
+            count.decrementAndGet();
+            return;
+        }
+        free.add(buf);
+    }
+}
@@ -14,9 +14,7 @@
 package org.olivearchive.vmnetx.android.protocol;
 
 import java.util.HashMap;
-import java.util.Map;
 
-import android.os.Bundle;
 import android.os.Handler;
 
 import org.olivearchive.vmnetx.android.Constants;
@@ -32,6 +30,29 @@ public class ClientProtocolEndpoint extends ProtocolEndpoint {
     protected static final int STATE_VIEWER = 4;
 
     protected int state = STATE_UNAUTHENTICATED;
+    // Set while a Resume message awaits its reply
+    private boolean resuming;
+    // attach-viewer was requested along with authentication
+    private boolean attachPending;
+
+    static {
+        // Received message types decode to these instances, so their
+        // hash codes are only computed once
+        String[] names = {
+            // message types
+            "auth-ok", "auth-failed", "attaching-viewer", "startup-progress",
+            "startup-rejected-memory", "startup-failed", "vm-started",
+            "vm-stopped", "vm-destroyed", "pong",
+            // keys
+            "state", "name", "limit_mouse_rate", "server_timeout_min",
+            "server_timeout_max", "resume_ticket", "fraction",
+            "check_display",
+            // VM states
+            "stopped", "starting", "running", "stopping",
+        };
+        for (String name : names)
+            RecvMessage.strings.add(name);
+    }
 
     public ClientProtocolEndpoint(ConnectionProcessor conn, Handler handler) {
         super(conn, handler);
@@ -41,120 +62,198 @@ public class ClientProtocolEndpoint extends ProtocolEndpoint {
         super(conn, target);
     }
 
-    protected void needDispatchState(int state) throws ProtocolException {
-        if (state != this.state)
-            throw new ProtocolException("Invalid state for operation (currently " + Integer.toString(this.state) + ")");
-    }
-
     protected void needSendState(int state) {
         if (state != this.state)
             throw new IllegalStateException("Invalid state for operation (currently " + Integer.toString(this.state) + ")");
     }
 
-    @Override
-    protected void dispatch(RecvMessage msg) throws ProtocolException {
-        if (msg.mtype.equals("auth-ok")) {
-            needDispatchState(STATE_AUTHENTICATING);
-            state = STATE_RUNNING;
-            Bundle bundle = new Bundle();
-            bundle.putInt(Constants.ARG_VM_STATE, msg.getVmState("state"));
-            bundle.putString(Constants.ARG_VM_NAME, msg.getString("name"));
-            bundle.putInt(Constants.ARG_MAX_MOUSE_RATE, msg.getInt("limit_mouse_rate", 0));
-            bundle.putInt(Constants.ARG_SERVER_TIMEOUT_MIN, msg.getInt("server_timeout_min", 0));
-            bundle.putInt(Constants.ARG_SERVER_TIMEOUT_MAX, msg.getInt("server_timeout_max", 0));
-            emit(Constants.CLIENT_PROTOCOL_AUTH_OK, bundle);
-
-        } else if (msg.mtype.equals("auth-failed")) {
-            needDispatchState(STATE_AUTHENTICATING);
-            state = STATE_UNAUTHENTICATED;
-            Bundle bundle = new Bundle();
-            bundle.putString(Constants.ARG_ERROR, msg.getString("error"));
-            emit(Constants.CLIENT_PROTOCOL_AUTH_FAILED, bundle);
-
-        } else if (msg.mtype.equals("attaching-viewer")) {
-            needDispatchState(STATE_ATTACHING_VIEWER);
-            state = STATE_VIEWER;
-            emit(Constants.CLIENT_PROTOCOL_ATTACHING_VIEWER);
-
-        } else if (msg.mtype.equals("startup-progress")) {
-            needDispatchState(STATE_RUNNING);
-            Bundle bundle = new Bundle();
-            bundle.putDouble(Constants.ARG_PROGRESS, msg.getDouble("fraction"));
-            emit(Constants.CLIENT_PROTOCOL_STARTUP_PROGRESS, bundle);
-
-        } else if (msg.mtype.equals("startup-rejected-memory")) {
-            needDispatchState(STATE_RUNNING);
-            emit(Constants.CLIENT_PROTOCOL_STARTUP_REJECTED_MEMORY);
-
-        } else if (msg.mtype.equals("startup-failed")) {
-            needDispatchState(STATE_RUNNING);
-            Bundle bundle = new Bundle();
-            bundle.putString(Constants.ARG_ERROR, msg.getString("message"));
-            emit(Constants.CLIENT_PROTOCOL_STARTUP_FAILED, bundle);
-
-        } else if (msg.mtype.equals("vm-started")) {
-            needDispatchState(STATE_RUNNING);
-            Bundle bundle = new Bundle();
-            bundle.putBoolean(Constants.ARG_CHECK_DISPLAY, msg.getBoolean("check_display"));
-            emit(Constants.CLIENT_PROTOCOL_VM_STARTED, bundle);
-
-        } else if (msg.mtype.equals("vm-stopped")) {
-            if (state == STATE_ATTACHING_VIEWER) {
-                // Could happen on viewer connections while the setup
-                // handshake is running
-                return;
+    // Handles one type of incoming message.  states is a bitmask of the
+    // endpoint states in which the message may arrive.
+    private static abstract class MessageHandler {
+        final int states;
+
+        MessageHandler(int states) {
+            this.states = states;
+        }
+
+        abstract void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                throws ProtocolException;
+    }
+
+    private static int in(int... states) {
+        int mask = 0;
+        for (int state : states)
+            mask |= 1 << state;
+        return mask;
+    }
+
+    private static final int ANY_STATE = ~0;
+
+    private static final HashMap<String, MessageHandler> handlers =
+            new HashMap<String, MessageHandler>();
+
+    static {
+        handlers.put("auth-ok", new MessageHandler(in(STATE_AUTHENTICATING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                    throws ProtocolException {
+                Messages.AuthOk authOk = Messages.AuthOk.decode(msg);
+                // A pipelined attach will be followed by attaching-viewer
+                if (endpoint.attachPending)
+                    endpoint.state = STATE_ATTACHING_VIEWER;
+                else
+                    endpoint.state = STATE_RUNNING;
+                endpoint.resuming = false;
+                endpoint.attachPending = false;
+                endpoint.emit(Constants.CLIENT_PROTOCOL_AUTH_OK, authOk);
             }
-            needDispatchState(STATE_RUNNING);
-            emit(Constants.CLIENT_PROTOCOL_VM_STOPPED);
-
-        } else if (msg.mtype.equals("vm-destroyed")) {
-            if (state == STATE_ATTACHING_VIEWER) {
-                // Could happen on viewer connections while the setup
-                // handshake is running
-                return;
+        });
+
+        handlers.put("auth-failed", new MessageHandler(in(STATE_AUTHENTICATING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                    throws ProtocolException {
+                endpoint.state = STATE_UNAUTHENTICATED;
+                endpoint.attachPending = false;
+                if (endpoint.resuming) {
+                    // The caller may fall back to sendAuthenticate()
+                    endpoint.resuming = false;
+                    endpoint.emit(Constants.CLIENT_PROTOCOL_RESUME_FAILED, Messages.AuthFailed.decode(msg));
+                } else {
+                    endpoint.emit(Constants.CLIENT_PROTOCOL_AUTH_FAILED, Messages.AuthFailed.decode(msg));
+                }
             }
-            needDispatchState(STATE_RUNNING);
-            emit(Constants.CLIENT_PROTOCOL_VM_DESTROYED);
+        });
 
-        } else if (msg.mtype.equals("pong")) {
-            emit(Constants.CLIENT_PROTOCOL_PONG);
+        handlers.put("attaching-viewer", new MessageHandler(in(STATE_ATTACHING_VIEWER)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg) {
+                endpoint.state = STATE_VIEWER;
+                endpoint.emit(Constants.CLIENT_PROTOCOL_ATTACHING_VIEWER);
+            }
+        });
+
+        handlers.put("startup-progress", new MessageHandler(in(STATE_RUNNING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                    throws ProtocolException {
+                endpoint.emit(Constants.CLIENT_PROTOCOL_STARTUP_PROGRESS, Messages.StartupProgress.decode(msg));
+            }
+        });
+
+        handlers.put("startup-rejected-memory", new MessageHandler(in(STATE_RUNNING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg) {
+                endpoint.emit(Constants.CLIENT_PROTOCOL_STARTUP_REJECTED_MEMORY);
+            }
+        });
 
-        } else {
+        handlers.put("startup-failed", new MessageHandler(in(STATE_RUNNING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                    throws ProtocolException {
+                endpoint.emit(Constants.CLIENT_PROTOCOL_STARTUP_FAILED, Messages.StartupFailed.decode(msg));
+            }
+        });
+
+        handlers.put("vm-started", new MessageHandler(in(STATE_RUNNING)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg)
+                    throws ProtocolException {
+                endpoint.emit(Constants.CLIENT_PROTOCOL_VM_STARTED, Messages.VmStarted.decode(msg));
+            }
+        });
+
+        // Could arrive on viewer connections while the setup handshake
+        // is running, in which case they're ignored
+        handlers.put("vm-stopped", new MessageHandler(in(STATE_RUNNING, STATE_ATTACHING_VIEWER)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg) {
+                if (endpoint.state == STATE_RUNNING)
+                    endpoint.emit(Constants.CLIENT_PROTOCOL_VM_STOPPED);
+            }
+        });
+
+        handlers.put("vm-destroyed", new MessageHandler(in(STATE_RUNNING, STATE_ATTACHING_VIEWER)) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg) {
+                if (endpoint.state == STATE_RUNNING)
+                    endpoint.emit(Constants.CLIENT_PROTOCOL_VM_DESTROYED);
+            }
+        });
+
+        handlers.put("pong", new MessageHandler(ANY_STATE) {
+            @Override
+            void handle(ClientProtocolEndpoint endpoint, RecvMessage msg) {
+                endpoint.emit(Constants.CLIENT_PROTOCOL_PONG);
+            }
+        });
+    }
+
+    @Override
+    protected void dispatch(RecvMessage msg) throws ProtocolException {
+        MessageHandler handler = handlers.get(msg.mtype);
+        if (handler == null) {
             super.dispatch(msg);
+            return;
         }
+        if ((handler.states & (1 << state)) == 0)
+            throw new ProtocolException("Received " + msg.mtype + " in invalid state (currently " + Integer.toString(state) + ")");
+        handler.handle(this, msg);
     }
 
     public void sendAuthenticate(String token) {
         needSendState(STATE_UNAUTHENTICATED);
         state = STATE_AUTHENTICATING;
-        Map<String, Object> args = new HashMap<String, Object>();
-        args.put("token", token);
-        transmit("authenticate", args);
+        transmit(new Messages.Authenticate(token));
+    }
+
+    // Skips authentication using a ticket from an earlier auth-ok.  If
+    // attachViewer is set, the viewer is attached without waiting for
+    // auth-ok, saving a round trip.
+    public void sendResume(String ticket, boolean attachViewer) {
+        needSendState(STATE_UNAUTHENTICATED);
+        state = STATE_AUTHENTICATING;
+        resuming = true;
+        attachPending = attachViewer;
+        transmit(new Messages.Resume(ticket, attachViewer));
+    }
+
+    // Requests the viewer attach without waiting for auth-ok, saving a
+    // round trip.  The server refuses the attach if authentication fails
+    // or the VM isn't running, so the caller must drop the connection
+    // unless auth-ok reports a running VM.
+    public void sendAuthenticateAndAttach(String token) {
+        needSendState(STATE_UNAUTHENTICATED);
+        state = STATE_AUTHENTICATING;
+        attachPending = true;
+        transmit(new Messages.Authenticate(token));
+        transmit(Messages.ATTACH_VIEWER);
     }
 
     public void sendAttachViewer() {
         needSendState(STATE_RUNNING);
         state = STATE_ATTACHING_VIEWER;
-        transmit("attach-viewer");
+        transmit(Messages.ATTACH_VIEWER);
     }
 
     public void sendStartVM() {
         needSendState(STATE_RUNNING);
-        transmit("start-vm");
+        transmit(Messages.START_VM);
     }
 
     public void sendStopVM() {
         needSendState(STATE_RUNNING);
-        transmit("stop-vm");
+        transmit(Messages.STOP_VM);
     }
 
     public void sendDestroyVM() {
         needSendState(STATE_RUNNING);
-        transmit("destroy-vm");
+        transmit(Messages.DESTROY_VM);
     }
 
     public void sendPing() {
         needSendState(STATE_RUNNING);
-        transmit("ping");
+        transmit(Messages.PING);
     }
 }
@@ -13,7 +13,16 @@
 
 package org.olivearchive.vmnetx.android.protocol;
 
+import java.nio.ByteBuffer;
+
 abstract class ConnectionProcessor {
+    // Outgoing frames are built in buffers checked out of this pool
+    static final BufferPool sendPool = new BufferPool(512, 16);
+
     abstract void setEndpoint(ProtocolEndpoint endpoint);
-    abstract void send(byte[] data);
+
+    // frame holds a complete length-prefixed message between its position
+    // and limit.  The connection takes ownership of the buffer and returns
+    // it to sendPool once it has been written.
+    abstract void send(ByteBuffer frame);
 }
@@ -14,22 +14,28 @@
 package org.olivearchive.vmnetx.android.protocol;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import android.util.Log;
 
+import net.asdfa.msgpack.InvalidMsgPackDataException;
+import net.asdfa.msgpack.MsgPack;
+import net.asdfa.msgpack.MsgPackIncrementalDecoder;
+
 public class ControlConnectionProcessor extends ConnectionProcessor
         implements Runnable {
     static private final String TAG = "ControlConnectionProcessor";
 
     static private final int HEADER_SIZE = 4;
     static private final int MAX_MESSAGE_SIZE = 1 << 20;
+    // Large enough for any message the server normally sends
+    static private final int RECV_BUFFER_SIZE = 4096;
     static private final int DEFAULT_OPS = SelectionKey.OP_READ;
 
     private final String host;
@@ -37,21 +43,35 @@ public class ControlConnectionProcessor extends ConnectionProcessor
     private final Selector selector;
     private final ConcurrentLinkedQueue<ByteBuffer> sendQueue = new ConcurrentLinkedQueue<ByteBuffer>();
 
+    static private final BufferPool recvPool = new BufferPool(RECV_BUFFER_SIZE, 2);
+
     private ProtocolEndpoint endpoint;
     private volatile boolean exit = false;
 
     // I/O thread private state
     private SocketChannel channel;
     private SelectionKey key;
-    private ByteBuffer sendBuf = null;
-    private ByteBuffer recvBuf = ByteBuffer.allocate(HEADER_SIZE);
+    // Frames taken from sendQueue and not yet fully written, in order
+    private ByteBuffer[] sendBufs = new ByteBuffer[8];
+    private int sendCount = 0;
+    // Messages are received whole into recvBuf, except that a message too
+    // big for it is fed through recvBuf to recvDecoder as it arrives, so
+    // the buffer never grows
+    private final ByteBuffer recvBuf = recvPool.obtain();
+    private final ByteBuffer recvView = recvBuf.asReadOnlyBuffer();
+    private final MsgPackIncrementalDecoder recvDecoder =
+            new MsgPackIncrementalDecoder(MsgPack.UNPACK_RAW_AS_STRING,
+            RecvMessage.strings);
     private boolean recvInLength = true;
+    // Bytes of a streamed message not yet read, or 0
+    private int recvStreamLeft = 0;
 
     public ControlConnectionProcessor(String host, int port)
             throws IOException {
         this.host = host;
         this.port = port;
         selector = Selector.open();
+        recvBuf.limit(HEADER_SIZE);
     }
 
     @Override
@@ -60,12 +80,8 @@ public class ControlConnectionProcessor extends ConnectionProcessor
     }
 
     @Override
-    void send(byte[] data) {
-        ByteBuffer buf = ByteBuffer.allocate(data.length + HEADER_SIZE);
-        buf.putInt(data.length);
-        buf.put(data);
-        buf.rewind();
-        sendQueue.add(buf);
+    void send(ByteBuffer frame) {
+        sendQueue.add(frame);
         wakeup();
     }
 
@@ -75,10 +91,8 @@ public class ControlConnectionProcessor extends ConnectionProcessor
     }
 
     private void connect() throws IOException {
-        // Connect synchronously
-        InetAddress address = InetAddress.getByName(host);
-        channel = SocketChannel.open(new InetSocketAddress(address, port));
-        channel.configureBlocking(false);
+        // Connect synchronously, racing the host's addresses
+        channel = HappyEyeballs.connect(host, port);
         channel.socket().setTcpNoDelay(true);
         key = channel.register(selector, DEFAULT_OPS, null);
         endpoint.connected();
@@ -86,29 +100,49 @@ public class ControlConnectionProcessor extends ConnectionProcessor
 
     private void trySend() throws IOException {
         while (true) {
-            if (sendBuf == null)
-                sendBuf = sendQueue.poll();
-            if (sendBuf == null) {
+            // Drain the queue so that a burst of messages goes out in a
+            // single gathering write
+            ByteBuffer frame;
+            while ((frame = sendQueue.poll()) != null) {
+                if (sendCount == sendBufs.length)
+                    sendBufs = Arrays.copyOf(sendBufs, sendCount * 2);
+                sendBufs[sendCount++] = frame;
+            }
+            if (sendCount == 0) {
                 key.interestOps(DEFAULT_OPS);
                 return;
             }
-            channel.write(sendBuf);
-            if (sendBuf.hasRemaining()) {
+            channel.write(sendBufs, 0, sendCount);
+
+            // Recycle the frames that were completely written
+            int done = 0;
+            while (done < sendCount && !sendBufs[done].hasRemaining())
+                sendPool.recycle(sendBufs[done++]);
+            System.arraycopy(sendBufs, done, sendBufs, 0, sendCount - done);
+            Arrays.fill(sendBufs, sendCount - done, sendCount, null);
+            sendCount -= done;
+            if (sendCount > 0) {
                 key.interestOps(DEFAULT_OPS | SelectionKey.OP_WRITE);
                 return;
             }
-            sendBuf = null;
         }
     }
 
     private void tryRecv() throws IOException {
         while (true) {
             // Read bytes
-            if (channel.read(recvBuf) == -1) {
+            int count = channel.read(recvBuf);
+            if (count == -1) {
                 // Connection closed
                 close();
                 return;
             }
+            if (recvStreamLeft > 0) {
+                if (count == 0)
+                    return;
+                recvStream();
+                continue;
+            }
             if (recvBuf.hasRemaining())
                 return;
             recvBuf.rewind();
@@ -119,27 +153,56 @@ public class ControlConnectionProcessor extends ConnectionProcessor
                 int length = recvBuf.getInt();
                 if (length > MAX_MESSAGE_SIZE)
                     throw new ProtocolException("Received oversize message of length " + Integer.toString(length));
+                recvInLength = false;
                 if (length > recvBuf.capacity()) {
-                    // Resize to next larger power of 2
-                    recvBuf = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+                    recvStreamLeft = length;
+                    recvDecoder.setLimit(length);
+                    recvBuf.clear();
+                } else {
+                    recvBuf.rewind();
+                    recvBuf.limit(length);
                 }
-                recvBuf.rewind();
-                recvBuf.limit(length);
-                recvInLength = false;
             } else {
-                // Process data
-                byte[] data = new byte[recvBuf.limit()];
-                recvBuf.get(data);
-                endpoint.dispatch(data);
-
-                // Set up for length
-                recvBuf.rewind();
-                recvBuf.limit(HEADER_SIZE);
-                recvInLength = true;
+                // Process data, through a read-only view that is only
+                // valid during dispatch
+                recvView.limit(recvBuf.limit());
+                recvView.position(0);
+                endpoint.dispatch(recvView);
+                recvExpectLength();
             }
         }
     }
 
+    // Decodes what has arrived of a streamed message
+    private void recvStream() throws IOException {
+        recvBuf.flip();
+        recvStreamLeft -= recvBuf.remaining();
+        boolean complete;
+        try {
+            complete = recvDecoder.feed(recvBuf);
+        } catch (InvalidMsgPackDataException e) {
+            throw new ProtocolException("MessagePack decode failure", e);
+        }
+        if (complete != (recvStreamLeft == 0) || recvBuf.hasRemaining())
+            throw new ProtocolException("Received message does not match its length");
+        if (complete) {
+            Object value = recvDecoder.getValue();
+            if (!(value instanceof Map))
+                throw new ProtocolException("Received message is not a map object");
+            endpoint.dispatch((Map<?, ?>) value);
+            recvExpectLength();
+        } else {
+            recvBuf.clear();
+            recvBuf.limit(Math.min(recvStreamLeft, recvBuf.capacity()));
+        }
+    }
+
+    private void recvExpectLength() {
+        recvBuf.clear();
+        recvBuf.limit(HEADER_SIZE);
+        recvInLength = true;
+    }
+
     private void wakeup() {
         try {
             selector.wakeup();
@@ -171,6 +234,7 @@ public class ControlConnectionProcessor extends ConnectionProcessor
                     channel.close();
                 selector.close();
             } catch (IOException e) {}
+            recvPool.recycle(recvBuf);
             endpoint.disconnected();
         }
     }
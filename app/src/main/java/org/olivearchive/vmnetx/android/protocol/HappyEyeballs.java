@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Connects to a host with several addresses by racing connection attempts
+// as in RFC 8305 ("Happy Eyeballs v2"), so that an unreachable address,
+// such as one behind a black-holed IPv6 route, only delays the connection
+// by the attempt delay instead of the OS connect timeout.  Attempts start
+// 250 ms apart, or as soon as the previous one fails, and alternate
+// between address families.  The family that wins is tried first on the
+// next connection to the same host.  Viewer connections run the same
+// race without blocking, on ViewerHandshakeLoop.
+final class HappyEyeballs {
+    private static final String TAG = "HappyEyeballs";
+
+    static final long ATTEMPT_DELAY = 250;
+
+    // Time allowed for the whole race
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    // Host name -> whether IPv6 won the last race
+    private static final ConcurrentHashMap<String, Boolean> preferIPv6 =
+            new ConcurrentHashMap<String, Boolean>();
+
+    private HappyEyeballs() {}
+
+    // Returns a connected, non-blocking channel
+    static SocketChannel connect(String host, int port) throws IOException {
+        List<InetAddress> addresses = order(host,
+                ResolverCache.resolve(host));
+        long deadline = SystemClock.uptimeMillis() + CONNECT_TIMEOUT;
+        Selector selector = Selector.open();
+        SocketChannel winner = null;
+        IOException lastError = null;
+        int next = 0;
+        int pending = 0;
+        try {
+            while (winner == null) {
+                // Start the next attempt
+                if (next < addresses.size()) {
+                    SocketChannel channel = null;
+                    try {
+                        channel = SocketChannel.open();
+                        channel.configureBlocking(false);
+                        InetSocketAddress address = new InetSocketAddress(
+                                addresses.get(next), port);
+                        if (channel.connect(address)) {
+                            winner = channel;
+                            break;
+                        }
+                        channel.register(selector, SelectionKey.OP_CONNECT);
+                        pending++;
+                    } catch (IOException e) {
+                        lastError = e;
+                        if (channel != null)
+                            channel.close();
+                    }
+                    next++;
+                }
+                if (pending == 0) {
+                    if (next < addresses.size())
+                        continue;
+                    break;
+                }
+
+                // Wait for an attempt to finish, or until it's time to
+                // start another
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    lastError = new SocketTimeoutException(
+                            "Timed out connecting to " + host);
+                    break;
+                }
+                if (next < addresses.size())
+                    selector.select(Math.min(ATTEMPT_DELAY, remaining));
+                else
+                    selector.select(remaining);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            key.cancel();
+                            winner = channel;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        lastError = e;
+                        key.cancel();
+                        channel.close();
+                        pending--;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            // Abandon the losers
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() != winner)
+                    key.channel().close();
+            }
+            selector.close();
+        }
+
+        if (winner == null) {
+            // The host may have moved
+            ResolverCache.refresh(host);
+            if (lastError != null)
+                throw lastError;
+            throw new ConnectException("Couldn't connect to " + host);
+        }
+        remember(host, winner.socket().getInetAddress());
+        Log.d(TAG, "Connected to " + winner.socket().getInetAddress() +
+                " after " + next + " attempt(s)");
+        return winner;
+    }
+
+    // Records the address that won a race to host
+    static void remember(String host, InetAddress address) {
+        preferIPv6.put(host, address instanceof Inet6Address);
+    }
+
+    // Interleaves address families, starting with the family that won
+    // last time or else the resolver's first choice
+    static List<InetAddress> order(String host,
+            InetAddress[] resolved) {
+        List<InetAddress> v6 = new ArrayList<InetAddress>();
+        List<InetAddress> v4 = new ArrayList<InetAddress>();
+        for (InetAddress address : resolved) {
+            if (address instanceof Inet6Address)
+                v6.add(address);
+            else
+                v4.add(address);
+        }
+        Boolean preferred = preferIPv6.get(host);
+        boolean v6First = preferred != null ? preferred :
+                resolved[0] instanceof Inet6Address;
+        List<InetAddress> first = v6First ? v6 : v4;
+        List<InetAddress> second = v6First ? v4 : v6;
+        List<InetAddress> ordered = new ArrayList<InetAddress>(resolved.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size())
+                ordered.add(first.get(i));
+            if (i < second.size())
+                ordered.add(second.get(i));
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import net.asdfa.msgpack.MsgPackWriter;
+
+// Typed forms of the control protocol messages that carry fields.
+// Incoming messages read only the fields they use from the received
+// message, and outgoing ones are encoded straight into the send buffer.
+// Incoming messages are also the event objects delivered to the
+// MessageProcessor.
+public final class Messages {
+    private Messages() {}
+
+    public static final class AuthOk {
+        public final int vmState;
+        public final String name;
+        public final int maxMouseRate;
+        public final int serverTimeoutMin;
+        public final int serverTimeoutMax;
+        // Presented in a Resume message to re-attach to the session
+        // without authenticating.  null if the server doesn't issue them.
+        public final String resumeTicket;
+
+        public AuthOk(int vmState, String name, int maxMouseRate,
+                int serverTimeoutMin, int serverTimeoutMax,
+                String resumeTicket) {
+            this.vmState = vmState;
+            this.name = name;
+            this.maxMouseRate = maxMouseRate;
+            this.serverTimeoutMin = serverTimeoutMin;
+            this.serverTimeoutMax = serverTimeoutMax;
+            this.resumeTicket = resumeTicket;
+        }
+
+        static AuthOk decode(RecvMessage msg) throws ProtocolException {
+            return new AuthOk(msg.getVmState("state"), msg.getString("name"),
+                    msg.getInt("limit_mouse_rate", 0),
+                    msg.getInt("server_timeout_min", 0),
+                    msg.getInt("server_timeout_max", 0),
+                    msg.getString("resume_ticket", null));
+        }
+    }
+
+    public static final class AuthFailed {
+        public final String error;
+
+        public AuthFailed(String error) {
+            this.error = error;
+        }
+
+        static AuthFailed decode(RecvMessage msg) throws ProtocolException {
+            return new AuthFailed(msg.getString("error"));
+        }
+    }
+
+    public static final class StartupProgress {
+        public final double fraction;
+
+        public StartupProgress(double fraction) {
+            this.fraction = fraction;
+        }
+
+        static StartupProgress decode(RecvMessage msg) throws ProtocolException {
+            return new StartupProgress(msg.getDouble("fraction"));
+        }
+    }
+
+    public static final class StartupFailed {
+        public final String message;
+
+        public StartupFailed(String message) {
+            this.message = message;
+        }
+
+        static StartupFailed decode(RecvMessage msg) throws ProtocolException {
+            return new StartupFailed(msg.getString("message"));
+        }
+    }
+
+    public static final class VmStarted {
+        public final boolean checkDisplay;
+
+        public VmStarted(boolean checkDisplay) {
+            this.checkDisplay = checkDisplay;
+        }
+
+        static VmStarted decode(RecvMessage msg) throws ProtocolException {
+            return new VmStarted(msg.getBoolean("check_display"));
+        }
+    }
+
+    public static final class ServerError {
+        public final String message;
+
+        public ServerError(String message) {
+            this.message = message;
+        }
+
+        static ServerError decode(RecvMessage msg) throws ProtocolException {
+            return new ServerError(msg.getString("message"));
+        }
+    }
+
+    // A message to be sent.  Messages without fields are shared
+    // instances of this class.
+    static class Outgoing {
+        public final String mtype;
+
+        Outgoing(String mtype) {
+            this.mtype = mtype;
+        }
+
+        // Number of fields written by encode()
+        int size() {
+            return 0;
+        }
+
+        void encode(MsgPackWriter out) {}
+    }
+
+    static final Outgoing ATTACH_VIEWER = new Outgoing("attach-viewer");
+    static final Outgoing START_VM = new Outgoing("start-vm");
+    static final Outgoing STOP_VM = new Outgoing("stop-vm");
+    static final Outgoing DESTROY_VM = new Outgoing("destroy-vm");
+    static final Outgoing PING = new Outgoing("ping");
+
+    static final class Authenticate extends Outgoing {
+        public final String token;
+
+        Authenticate(String token) {
+            super("authenticate");
+            this.token = token;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        void encode(MsgPackWriter out) {
+            out.packString("token");
+            out.packString(token);
+        }
+    }
+
+    // Re-attaches to a session with a ticket from a previous auth-ok.
+    // The server answers with auth-ok, followed by attaching-viewer if
+    // attachViewer is set, or with auth-failed if the ticket has expired.
+    static final class Resume extends Outgoing {
+        public final String ticket;
+        public final boolean attachViewer;
+
+        Resume(String ticket, boolean attachViewer) {
+            super("resume");
+            this.ticket = ticket;
+            this.attachViewer = attachViewer;
+        }
+
+        @Override
+        int size() {
+            return attachViewer ? 2 : 1;
+        }
+
+        @Override
+        void encode(MsgPackWriter out) {
+            out.packString("ticket");
+            out.packString(ticket);
+            if (attachViewer) {
+                out.packString("attach_viewer");
+                out.packBoolean(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.asdfa.msgpack.InvalidMsgPackDataException;
+import net.asdfa.msgpack.MsgPackMapView;
+import net.asdfa.msgpack.MsgPackReader;
+import net.asdfa.msgpack.StringCache;
+
+import org.olivearchive.vmnetx.android.Constants;
+
+// Kept free of Android dependencies so that it can be benchmarked on a
+// plain JVM.
+final class RecvMessage {
+    @SuppressWarnings("unused")
+    static private final String TAG = "RecvMessage";
+    static final String MTYPE_KEY = "_";
+
+    // Keys and message types recur in every message, so decode them to
+    // shared instances.  Seeding with the literals we compare against
+    // lets String.equals() succeed on its identity check.
+    static final StringCache strings = new StringCache(256, 32);
+    static {
+        strings.add(MTYPE_KEY);
+        strings.add("error");
+        strings.add("message");
+    }
+
+    public final String mtype;
+    // Exactly one of these is set
+    private final MsgPackMapView view;
+    private final Map<?, ?> fields;
+
+    // The message refers to the contents of buf, which must not change
+    // while the message is in use.
+    public RecvMessage(ByteBuffer buf) throws ProtocolException {
+        // Validate the message and index its fields; values are only
+        // decoded when they are asked for
+        try {
+            if (new MsgPackReader(buf).nextType() != MsgPackReader.TYPE_MAP)
+                throw new ProtocolException("Received message is not a map object");
+            view = new MsgPackMapView(buf, strings);
+            fields = null;
+            MsgPackReader in = view.reader(MTYPE_KEY);
+            if (in != null && in.nextType() == MsgPackReader.TYPE_RAW)
+                mtype = in.readString();
+            else
+                throw new ProtocolException("Received message without a type");
+        } catch (InvalidMsgPackDataException e) {
+            throw new ProtocolException("MessagePack decode failure", e);
+        }
+        //android.util.Log.d(TAG, "Received message: " + mtype);
+    }
+
+    // For messages too large to buffer, which have been decoded as they
+    // arrived, with str values as Strings
+    public RecvMessage(Map<?, ?> fields) throws ProtocolException {
+        Object type = fields.get(MTYPE_KEY);
+        if (!(type instanceof String))
+            throw new ProtocolException("Received message without a type");
+        mtype = (String) type;
+        view = null;
+        this.fields = fields;
+        //android.util.Log.d(TAG, "Received message: " + mtype);
+    }
+
+    // Returns a reader positioned at the value of key, or null if the
+    // key is absent or nil
+    private MsgPackReader value(String key) throws ProtocolException {
+        MsgPackReader in = view.reader(key);
+        try {
+            if (in == null || in.nextType() == MsgPackReader.TYPE_NIL)
+                return null;
+        } catch (InvalidMsgPackDataException e) {
+            throw invalid(key, e);
+        }
+        return in;
+    }
+
+    private MsgPackReader required(String key) throws ProtocolException {
+        MsgPackReader in = value(key);
+        if (in == null)
+            throw new ProtocolException("Missing required value " + key + " in message " + mtype);
+        return in;
+    }
+
+    private ProtocolException invalid(String key, InvalidMsgPackDataException e) {
+        return new ProtocolException("Invalid value for field " + key + " in message " + mtype, e);
+    }
+
+    private ProtocolException invalid(String key) {
+        return new ProtocolException("Invalid value for field " + key + " in message " + mtype);
+    }
+
+    private Object requiredField(String key) throws ProtocolException {
+        Object value = fields.get(key);
+        if (value == null)
+            throw new ProtocolException("Missing required value " + key + " in message " + mtype);
+        return value;
+    }
+
+    // The conversions below accept what the corresponding reads accept
+    private String toString(String key, Object value) throws ProtocolException {
+        if (!(value instanceof String))
+            throw invalid(key);
+        return (String) value;
+    }
+
+    private int toInt(String key, Object value) throws ProtocolException {
+        if (!(value instanceof Number) || value instanceof Float ||
+                value instanceof Double || value instanceof BigInteger)
+            throw invalid(key);
+        long v = ((Number) value).longValue();
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw invalid(key);
+        return (int) v;
+    }
+
+    private double toDouble(String key, Object value) throws ProtocolException {
+        if (!(value instanceof Number) || value instanceof BigInteger)
+            throw invalid(key);
+        return ((Number) value).doubleValue();
+    }
+
+    private boolean toBoolean(String key, Object value) throws ProtocolException {
+        if (!(value instanceof Boolean))
+            throw invalid(key);
+        return (Boolean) value;
+    }
+
+    private String readString(String key, MsgPackReader in) throws ProtocolException {
+        try {
+            return in.readString();
+        } catch (InvalidMsgPackDataException e) {
+            throw invalid(key, e);
+        }
+    }
+
+    // Accepts any integer encoding that fits
+    private int readInt(String key, MsgPackReader in) throws ProtocolException {
+        try {
+            return in.readInt();
+        } catch (InvalidMsgPackDataException e) {
+            throw invalid(key, e);
+        }
+    }
+
+    // Whole numbers may arrive packed as integers
+    private double readDouble(String key, MsgPackReader in) throws ProtocolException {
+        try {
+            return in.readDouble();
+        } catch (InvalidMsgPackDataException e) {
+            throw invalid(key, e);
+        }
+    }
+
+    private boolean readBoolean(String key, MsgPackReader in) throws ProtocolException {
+        try {
+            return in.readBoolean();
+        } catch (InvalidMsgPackDataException e) {
+            throw invalid(key, e);
+        }
+    }
+
+    public String getString(String key) throws ProtocolException {
+        if (fields != null)
+            return toString(key, requiredField(key));
+        return readString(key, required(key));
+    }
+
+    public String getString(String key, String defaul) throws ProtocolException {
+        if (fields != null) {
+            Object value = fields.get(key);
+            return value != null ? toString(key, value) : defaul;
+        }
+        MsgPackReader in = value(key);
+        return in != null ? readString(key, in) : defaul;
+    }
+
+    public int getVmState(String key) throws ProtocolException {
+        String vmState = getString(key);
+        if (vmState.equals("stopped"))
+            return Constants.VM_STATE_STOPPED;
+        else if (vmState.equals("starting"))
+            return Constants.VM_STATE_STARTING;
+        else if (vmState.equals("running"))
+            return Constants.VM_STATE_RUNNING;
+        else if (vmState.equals("stopping"))
+            return Constants.VM_STATE_STOPPING;
+        else
+            return Constants.VM_STATE_UNKNOWN;
+    }
+
+    public int getInt(String key) throws ProtocolException {
+        if (fields != null)
+            return toInt(key, requiredField(key));
+        return readInt(key, required(key));
+    }
+
+    public int getInt(String key, int defaul) throws ProtocolException {
+        if (fields != null) {
+            Object value = fields.get(key);
+            return value != null ? toInt(key, value) : defaul;
+        }
+        MsgPackReader in = value(key);
+        return in != null ? readInt(key, in) : defaul;
+    }
+
+    public double getDouble(String key) throws ProtocolException {
+        if (fields != null)
+            return toDouble(key, requiredField(key));
+        return readDouble(key, required(key));
+    }
+
+    public double getDouble(String key, double defaul) throws ProtocolException {
+        if (fields != null) {
+            Object value = fields.get(key);
+            return value != null ? toDouble(key, value) : defaul;
+        }
+        MsgPackReader in = value(key);
+        return in != null ? readDouble(key, in) : defaul;
+    }
+
+    public boolean getBoolean(String key) throws ProtocolException {
+        if (fields != null)
+            return toBoolean(key, requiredField(key));
+        return readBoolean(key, required(key));
+    }
+
+    public boolean getBoolean(String key, boolean defaul) throws ProtocolException {
+        if (fields != null) {
+            Object value = fields.get(key);
+            return value != null ? toBoolean(key, value) : defaul;
+        }
+        MsgPackReader in = value(key);
+        return in != null ? readBoolean(key, in) : defaul;
+    }
+}
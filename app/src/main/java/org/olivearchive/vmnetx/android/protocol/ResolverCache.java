@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Process-wide cache of host name lookups, shared by the control
+// connection and the viewer connections of every SPICE channel.  Java
+// can't see DNS TTLs, so answers are kept for a fixed time and failures
+// for a shorter one.  An answer that is getting old is refreshed in the
+// background while it continues to be used, and an expired one is still
+// returned for a while if the refresh hasn't finished, so a lookup only
+// blocks a connection the first time a host is seen.  Concurrent lookups
+// of the same host share one query.
+final class ResolverCache {
+    private static final String TAG = "ResolverCache";
+
+    private static final long TTL = 60000;
+    private static final long NEGATIVE_TTL = 10000;
+    // Refresh in the background once this old
+    private static final long REFRESH_AGE = TTL * 3 / 4;
+    // Keep using an expired answer until this old while it is refreshed
+    private static final long STALE_TTL = 600000;
+
+    private static final class Entry {
+        // null for a failed lookup
+        final InetAddress[] addresses;
+        final String error;
+        final long time = SystemClock.elapsedRealtime();
+
+        Entry(InetAddress[] addresses, String error) {
+            this.addresses = addresses;
+            this.error = error;
+        }
+
+        long age() {
+            return SystemClock.elapsedRealtime() - time;
+        }
+
+        InetAddress[] get() throws UnknownHostException {
+            if (addresses == null)
+                throw new UnknownHostException(error);
+            return addresses.clone();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+    private static final ConcurrentHashMap<String, FutureTask<Entry>> pending =
+            new ConcurrentHashMap<String, FutureTask<Entry>>();
+    // Pooled so that a lookup waiting on a refresh can't block the thread
+    // the refresh needs
+    private static final ExecutorService refresher =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    interface Callback {
+        void resolved(InetAddress[] addresses);
+        void failed(UnknownHostException e);
+    }
+
+    private ResolverCache() {}
+
+    // Returns the cached entry if it can still be used, starting a
+    // refresh if it is getting old, or null if a lookup is needed
+    private static Entry cached(String host) {
+        Entry entry = entries.get(host);
+        if (entry == null)
+            return null;
+        long age = entry.age();
+        if (entry.addresses == null)
+            return age < NEGATIVE_TTL ? entry : null;
+        if (age >= STALE_TTL)
+            return null;
+        if (age >= REFRESH_AGE)
+            refresh(host);
+        return entry;
+    }
+
+    static InetAddress[] resolve(String host) throws UnknownHostException {
+        Entry entry = cached(host);
+        if (entry != null)
+            return entry.get();
+        // Join a query that is already running, or run one here
+        FutureTask<Entry> task = newTask(host);
+        FutureTask<Entry> running = pending.putIfAbsent(host, task);
+        if (running == null) {
+            running = task;
+            task.run();
+        }
+        Entry result;
+        try {
+            result = running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted looking up " + host);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return result.get();
+    }
+
+    // Calls back on this thread if the answer is cached, and otherwise
+    // from a background thread once the lookup completes
+    static void resolve(final String host, final Callback callback) {
+        Entry entry = cached(host);
+        if (entry == null) {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    InetAddress[] addresses;
+                    try {
+                        addresses = resolve(host);
+                    } catch (UnknownHostException e) {
+                        callback.failed(e);
+                        return;
+                    }
+                    callback.resolved(addresses);
+                }
+            });
+            return;
+        }
+        InetAddress[] addresses;
+        try {
+            addresses = entry.get();
+        } catch (UnknownHostException e) {
+            callback.failed(e);
+            return;
+        }
+        callback.resolved(addresses);
+    }
+
+    // Starts a background lookup, for instance after connecting to the
+    // cached addresses failed
+    static void refresh(String host) {
+        FutureTask<Entry> task = newTask(host);
+        if (pending.putIfAbsent(host, task) == null)
+            refresher.execute(task);
+    }
+
+    private static FutureTask<Entry> newTask(final String host) {
+        return new FutureTask<Entry>(new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                return query(host);
+            }
+        });
+    }
+
+    private static Entry query(String host) {
+        Entry entry;
+        try {
+            entry = new Entry(InetAddress.getAllByName(host), null);
+        } catch (UnknownHostException e) {
+            Log.w(TAG, "Lookup failure for " + host + ": " + e.getMessage());
+            entry = new Entry(null, e.getMessage());
+        }
+        // A failed refresh doesn't replace a usable answer
+        Entry old = entries.get(host);
+        if (entry.addresses != null || old == null ||
+                old.addresses == null || old.age() >= STALE_TTL)
+            entries.put(host, entry);
+        else
+            entry = old;
+        pending.remove(host);
+        return entry;
+    }
+}
@@ -11,52 +11,159 @@
  * for more details.
  */
 
+
 package org.olivearchive.vmnetx.android.protocol;
 
-import android.os.Bundle;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
+import org.olivearchive.vmnetx.android.BuildConfig;
 import org.olivearchive.vmnetx.android.Constants;
 
+// Sets up a viewer connection: connects, authenticates and attaches the
+// viewer, then hands the socket over to SPICE.  The handshake runs on
+// ViewerHandshakeLoop; connect() returns at once.
+//
+// A connection set up with prepare() instead stops once it has
+// authenticated, and waits on standby, pinging the server to keep the
+// connection alive, until attach() is called.
+//
+// Builds with VIEWER_PIPELINE send attach-viewer right behind authenticate
+// instead of waiting for auth-ok, and drop the connection if auth-ok
+// doesn't report a running VM.
 public class ViewerConnectionProcessor extends ConnectionProcessor {
     private static final String TAG = "ViewerConnectionProcessor";
 
+    private static final int HEADER_SIZE = 4;
+    private static final int MAX_MESSAGE_SIZE = 1 << 20;
+    // For the whole handshake, from the first connection attempt
+    private static final long HANDSHAKE_TIMEOUT = 30000;
+    // Keepalives for standby connections
+    private static final long PING_INTERVAL = 30000;
+    private static final long PING_TIMEOUT = 10000;
+
     private static final int CONNECT_CONTINUE = 0;
     private static final int CONNECT_DONE = 1;
     private static final int CONNECT_FAILED = 2;
 
-    private native void Connect(String host, String port);
-    private native void SendMessage(int fd, byte[] data);
+    // Exactly one method is called, on the handshake thread
+    public interface Listener {
+        // fd is an attached viewer connection, now owned by the listener
+        void onViewerConnected(int fd);
+        void onViewerFailed();
+    }
+
+    // For connections set up with prepare().  Exactly one method is
+    // called, on the handshake thread, unless the connection is closed
+    // first.
+    public interface StandbyListener {
+        // Authenticated, and ready for attach()
+        void onViewerStandby(ViewerConnectionProcessor conn);
+        // Failed during setup or while on standby
+        void onViewerLost(ViewerConnectionProcessor conn);
+    }
 
     private final String host;
-    private final String port;
+    private final int port;
     private final String token;
+    private final String resumeTicket;
     private final ClientProtocolEndpoint endpoint;
+    private Listener listener;
+    private StandbyListener standbyListener;
+    private ViewerHandshakeLoop loop;
+    private InetAddress[] resolved;
+
+    // Handshake thread private state
     private int state = CONNECT_CONTINUE;
-    private int fd = -1;
+    // attach-viewer was sent along with authenticate or resume
+    private boolean attachSent = false;
+    private boolean finished = false;
+    private boolean standby = false;
+    private long nextPing;
+    private boolean pingOutstanding = false;
+    private long deadline;
+    // Addresses are raced as in HappyEyeballs
+    private List<InetAddress> addresses;
+    private int nextAddress = 0;
+    private long nextAttemptTime;
+    private final ArrayList<SelectionKey> attempts = new ArrayList<SelectionKey>();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ArrayDeque<ByteBuffer> sendQueue = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer recvHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer recvBuf = recvHeader;
 
     private class ViewerMessageProcessor
             implements ProtocolEndpoint.MessageProcessor {
         @Override
-        public void processMessage(int what, Bundle args) {
+        public void processMessage(int what, Object event) {
             // callback from ProtocolEndpoint
             switch (what) {
             case Constants.PROTOCOL_CONNECTED:
-                endpoint.sendAuthenticate(token);
+                if (resumeTicket != null) {
+                    attachSent = listener != null;
+                    endpoint.sendResume(resumeTicket, attachSent);
+                } else {
+                    authenticate();
+                }
+                break;
+
+            case Constants.CLIENT_PROTOCOL_RESUME_FAILED:
+                Log.w(TAG, "Viewer resume failed: " + ((Messages.AuthFailed) event).error);
+                attachSent = false;
+                authenticate();
                 break;
 
             case Constants.CLIENT_PROTOCOL_AUTH_OK:
-                int vmState = args.getInt(Constants.ARG_VM_STATE);
+                int vmState = ((Messages.AuthOk) event).vmState;
                 if (vmState != Constants.VM_STATE_RUNNING) {
                     Log.e(TAG, "Server in unexpected state " + Integer.toString(vmState));
                     transition(CONNECT_FAILED);
-                } else {
+                } else if (listener == null) {
+                    enterStandby();
+                } else if (!attachSent) {
                     endpoint.sendAttachViewer();
                 }
                 break;
 
+            case Constants.CLIENT_PROTOCOL_PONG:
+                pingOutstanding = false;
+                if (standby) {
+                    // Only the ping timeout applies on standby; a pong
+                    // arriving after attach() leaves the handshake
+                    // deadline alone
+                    nextPing = SystemClock.uptimeMillis() + PING_INTERVAL;
+                    deadline = Long.MAX_VALUE;
+                }
+                break;
+
+            case Constants.CLIENT_PROTOCOL_VM_STOPPED:
+            case Constants.CLIENT_PROTOCOL_VM_DESTROYED:
+                // Only delivered while on standby; the connection can no
+                // longer be attached
+                Log.d(TAG, "VM stopped during standby");
+                transition(CONNECT_FAILED);
+                break;
+
+            case Constants.CLIENT_PROTOCOL_STARTUP_PROGRESS:
+            case Constants.CLIENT_PROTOCOL_VM_STARTED:
+                break;
+
             case Constants.CLIENT_PROTOCOL_AUTH_FAILED:
-                Log.e(TAG, "Viewer auth failed: " + args.getString(Constants.ARG_ERROR));
+                Log.e(TAG, "Viewer auth failed: " + ((Messages.AuthFailed) event).error);
                 transition(CONNECT_FAILED);
                 break;
 
@@ -65,7 +172,7 @@ public class ViewerConnectionProcessor extends ConnectionProcessor {
                 break;
 
             case Constants.PROTOCOL_ERROR:
-                Log.e(TAG, "Protocol error: " + args.getString(Constants.ARG_ERROR));
+                Log.e(TAG, "Protocol error: " + ((Messages.ServerError) event).message);
                 transition(CONNECT_FAILED);
                 break;
 
@@ -76,10 +183,13 @@ public class ViewerConnectionProcessor extends ConnectionProcessor {
         }
     }
 
-    public ViewerConnectionProcessor(String host, String port, String token) {
+    // resumeTicket may be null
+    public ViewerConnectionProcessor(String host, int port, String token,
+            String resumeTicket) {
         this.host = host;
         this.port = port;
         this.token = token;
+        this.resumeTicket = resumeTicket;
         endpoint = new ClientProtocolEndpoint(this,
                 new ViewerMessageProcessor());
     }
@@ -88,42 +198,340 @@ public class ViewerConnectionProcessor extends ConnectionProcessor {
     void setEndpoint(ProtocolEndpoint endpoint) {}
 
     @Override
-    void send(byte[] data) {
-        if (fd != -1 && state == CONNECT_CONTINUE)
-            SendMessage(fd, data);
-        else
+    void send(ByteBuffer frame) {
+        if (channel == null || state != CONNECT_CONTINUE)
             throw new IllegalStateException("Connection not available for sending");
+        // checkState() writes out everything sent while handling an
+        // event, so that pipelined messages go out together
+        sendQueue.add(frame);
+    }
+
+    public void connect(Listener listener) {
+        if (this.listener != null || standbyListener != null)
+            throw new IllegalStateException("Cannot reuse ViewerConnectionProcessor objects");
+        this.listener = listener;
+        start();
     }
 
-    public int connect() throws ProtocolException {
-        if (state != CONNECT_CONTINUE)
+    // Connects and authenticates, but doesn't attach the viewer
+    public void prepare(StandbyListener standbyListener) {
+        if (listener != null || this.standbyListener != null)
             throw new IllegalStateException("Cannot reuse ViewerConnectionProcessor objects");
+        this.standbyListener = standbyListener;
+        start();
+    }
+
+    // Attaches the viewer to a connection on standby.  If the connection
+    // has been lost, listener.onViewerFailed() is called.
+    public void attach(final Listener listener) {
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (finished || !standby) {
+                    listener.onViewerFailed();
+                    return;
+                }
+                ViewerConnectionProcessor.this.listener = listener;
+                standby = false;
+                deadline = SystemClock.uptimeMillis() + HANDSHAKE_TIMEOUT;
+                endpoint.sendAttachViewer();
+                checkState();
+            }
+        });
+    }
+
+    // Drops a connection on standby without calling its listener
+    public void close() {
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (finished || !standby)
+                    return;
+                standbyListener = null;
+                fail();
+            }
+        });
+    }
+
+    private void start() {
         Log.d(TAG, "Connect " + host + ":" + port);
-        Connect(host, port);
-        if (state != CONNECT_DONE)
-            throw new ProtocolException("Could not establish connection");
-        return fd;
+        ResolverCache.resolve(host, new ResolverCache.Callback() {
+            @Override
+            public void resolved(InetAddress[] addresses) {
+                resolved = addresses;
+                try {
+                    loop = ViewerHandshakeLoop.get();
+                } catch (IOException e) {
+                    Log.e(TAG, "Couldn't start handshake loop", e);
+                    notifyFailed();
+                    return;
+                }
+                loop.add(ViewerConnectionProcessor.this);
+            }
+
+            @Override
+            public void failed(UnknownHostException e) {
+                Log.e(TAG, "Lookup failure for " + host, e);
+                notifyFailed();
+            }
+        });
     }
 
-    private void OnConnect(int fd) {
-        // callback from JNI
-        this.fd = fd;
-        endpoint.connected();
+    void start(long now) {
+        addresses = HappyEyeballs.order(host, resolved);
+        deadline = now + HANDSHAKE_TIMEOUT;
+        tick(now);
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getWakeupTime() {
+        if (standby)
+            return Math.min(nextPing, deadline);
+        if (channel == null && nextAddress < addresses.size())
+            return Math.min(nextAttemptTime, deadline);
+        return deadline;
+    }
+
+    // Starts connection attempts that are due, and enforces the deadline
+    void tick(long now) {
+        if (finished)
+            return;
+        if (now >= deadline) {
+            Log.e(TAG, standby ? "Standby viewer connection timed out" :
+                    "Viewer handshake timed out");
+            fail();
+            return;
+        }
+        if (standby) {
+            if (!pingOutstanding && now >= nextPing) {
+                endpoint.sendPing();
+                pingOutstanding = true;
+                deadline = now + PING_TIMEOUT;
+                checkState();
+            }
+            return;
+        }
+        if (channel != null)
+            return;
+        // Start immediately if nothing else is in progress
+        while (channel == null && nextAddress < addresses.size() &&
+                (attempts.isEmpty() || now >= nextAttemptTime))
+            startAttempt(now);
+        if (channel == null && attempts.isEmpty()) {
+            Log.e(TAG, "Connect failure: " + host + ":" + port);
+            // The host may have moved
+            ResolverCache.refresh(host);
+            fail();
+        }
+    }
+
+    private void startAttempt(long now) {
+        InetSocketAddress address = new InetSocketAddress(
+                addresses.get(nextAddress++), port);
+        nextAttemptTime = now + HappyEyeballs.ATTEMPT_DELAY;
+        SocketChannel ch = null;
+        try {
+            ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            if (ch.connect(address)) {
+                connected(ch.register(loop.getSelector(), 0, this));
+            } else {
+                attempts.add(ch.register(loop.getSelector(),
+                        SelectionKey.OP_CONNECT, this));
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't connect to " + address, e);
+            close(ch);
+        }
     }
 
-    private int OnReceiveMessage(byte[] data) {
-        // callback from JNI
+    // Called when a key registered by us is ready
+    void ready(SelectionKey key) {
+        // A losing attempt may have been cancelled by a winner selected
+        // in the same round
+        if (finished || !key.isValid())
+            return;
+        if (channel == null) {
+            SocketChannel ch = (SocketChannel) key.channel();
+            try {
+                if (ch.finishConnect()) {
+                    attempts.remove(key);
+                    connected(key);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Couldn't connect to " + host, e);
+                attempts.remove(key);
+                key.cancel();
+                close(ch);
+                // Try the next address right away
+                nextAttemptTime = 0;
+            }
+            return;
+        }
+        if (key != this.key)
+            return;
         try {
-            endpoint.dispatch(data);
-        } catch (ProtocolException e) {
-            Log.e(TAG, "Dispatch error", e);
+            if (key.isWritable())
+                trySend();
+            if (key.isReadable())
+                tryRecv();
+        } catch (IOException e) {
+            Log.e(TAG, "Viewer connection error", e);
             transition(CONNECT_FAILED);
         }
-        return state;
+        checkState();
+    }
+
+    private void connected(SelectionKey key) {
+        // Abandon the losers
+        for (SelectionKey attempt : attempts) {
+            attempt.cancel();
+            close((SocketChannel) attempt.channel());
+        }
+        attempts.clear();
+
+        this.key = key;
+        channel = (SocketChannel) key.channel();
+        HappyEyeballs.remember(host, channel.socket().getInetAddress());
+        key.interestOps(SelectionKey.OP_READ);
+        endpoint.connected();
+        checkState();
+    }
+
+    private void trySend() throws IOException {
+        if (!sendQueue.isEmpty()) {
+            // One gathering write, so that queued messages can share a
+            // segment
+            channel.write(sendQueue.toArray(new ByteBuffer[sendQueue.size()]));
+            ByteBuffer frame;
+            while ((frame = sendQueue.peek()) != null && !frame.hasRemaining())
+                sendPool.recycle(sendQueue.poll());
+        }
+        key.interestOps(sendQueue.isEmpty() ? SelectionKey.OP_READ :
+                SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void tryRecv() throws IOException {
+        // Never read past the end of the current message, so that nothing
+        // meant for SPICE is consumed
+        while (state == CONNECT_CONTINUE) {
+            if (channel.read(recvBuf) == -1)
+                throw new EOFException("Viewer connection closed");
+            if (recvBuf.hasRemaining())
+                return;
+            recvBuf.flip();
+
+            if (recvBuf == recvHeader) {
+                int length = recvBuf.getInt();
+                if (length < 0 || length > MAX_MESSAGE_SIZE)
+                    throw new ProtocolException("Received message of invalid length " + Integer.toString(length));
+                recvBuf = ByteBuffer.allocate(length);
+            } else {
+                endpoint.dispatch(recvBuf);
+                recvBuf = recvHeader;
+                recvBuf.clear();
+            }
+        }
+    }
+
+    // Fails the connection after an unexpected exception on the
+    // handshake thread
+    void abort() {
+        if (!finished)
+            fail();
+    }
+
+    private void enterStandby() {
+        long now = SystemClock.uptimeMillis();
+        standby = true;
+        nextPing = now + PING_INTERVAL;
+        deadline = Long.MAX_VALUE;
+        standbyListener.onViewerStandby(this);
+    }
+
+    private void authenticate() {
+        if (BuildConfig.VIEWER_PIPELINE && listener != null) {
+            attachSent = true;
+            endpoint.sendAuthenticateAndAttach(token);
+        } else {
+            endpoint.sendAuthenticate(token);
+        }
+    }
+
+    private void checkState() {
+        if (finished)
+            return;
+        if (state == CONNECT_CONTINUE && !sendQueue.isEmpty()) {
+            try {
+                trySend();
+            } catch (IOException e) {
+                Log.e(TAG, "Viewer connection error", e);
+                transition(CONNECT_FAILED);
+            }
+        }
+        if (state == CONNECT_DONE)
+            handOver();
+        else if (state == CONNECT_FAILED)
+            fail();
+    }
+
+    private void handOver() {
+        finished = true;
+        key.cancel();
+        // SPICE gets a duplicate of the socket; ours is closed
+        int fd = -1;
+        try {
+            ParcelFileDescriptor pfd =
+                    ParcelFileDescriptor.fromSocket(channel.socket());
+            if (pfd != null)
+                fd = pfd.detachFd();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Couldn't take viewer socket", e);
+        }
+        close(channel);
+        if (fd != -1)
+            listener.onViewerConnected(fd);
+        else
+            listener.onViewerFailed();
+    }
+
+    private void fail() {
+        finished = true;
+        for (SelectionKey attempt : attempts) {
+            attempt.cancel();
+            close((SocketChannel) attempt.channel());
+        }
+        attempts.clear();
+        if (key != null)
+            key.cancel();
+        close(channel);
+        ByteBuffer frame;
+        while ((frame = sendQueue.poll()) != null)
+            sendPool.recycle(frame);
+        standby = false;
+        notifyFailed();
+    }
+
+    private void notifyFailed() {
+        if (listener != null)
+            listener.onViewerFailed();
+        else if (standbyListener != null)
+            standbyListener.onViewerLost(this);
     }
 
     private void transition(int state) {
         if (this.state == CONNECT_CONTINUE)
             this.state = state;
     }
+
+    private static void close(SocketChannel ch) {
+        if (ch == null)
+            return;
+        try {
+            ch.close();
+        } catch (IOException e) {}
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// A single thread that drives the setup handshakes of all viewer
+// connections with non-blocking I/O, so opening many SPICE channels at
+// once needs neither a thread per channel nor blocking reads.  It also
+// keeps standby connections alive until they are attached.
+final class ViewerHandshakeLoop implements Runnable {
+    private static final String TAG = "ViewerHandshakeLoop";
+
+    private static ViewerHandshakeLoop instance;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<ViewerConnectionProcessor> added =
+            new ConcurrentLinkedQueue<ViewerConnectionProcessor>();
+    private final ConcurrentLinkedQueue<Runnable> tasks =
+            new ConcurrentLinkedQueue<Runnable>();
+
+    // Loop thread private state
+    private final ArrayList<ViewerConnectionProcessor> active =
+            new ArrayList<ViewerConnectionProcessor>();
+
+    private ViewerHandshakeLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    static synchronized ViewerHandshakeLoop get() throws IOException {
+        if (instance == null) {
+            instance = new ViewerHandshakeLoop();
+            Thread thread = new Thread(instance, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    void add(ViewerConnectionProcessor conn) {
+        added.add(conn);
+        wakeup();
+    }
+
+    // Runs task on the loop thread
+    void post(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    private void wakeup() {
+        try {
+            selector.wakeup();
+        } catch (Exception e) {
+            // Should be impossible to get IOExceptions, but Lollipop
+            // throws them
+            // https://code.google.com/p/android/issues/detail?id=80785
+            if (!(e instanceof IOException))
+                throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long now = SystemClock.uptimeMillis();
+            ViewerConnectionProcessor conn;
+            while ((conn = added.poll()) != null) {
+                active.add(conn);
+                try {
+                    conn.start(now);
+                } catch (RuntimeException e) {
+                    abort(conn, e);
+                }
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task failed", e);
+                }
+            }
+
+            // Sleep until the next attempt or timeout is due
+            long timeout = 0;
+            for (ViewerConnectionProcessor c : active) {
+                long wait = Math.max(1, c.getWakeupTime() - now);
+                if (timeout == 0 || wait < timeout)
+                    timeout = wait;
+            }
+            try {
+                selector.select(timeout);
+            } catch (IOException e) {
+                Log.e(TAG, "select failed", e);
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                conn = (ViewerConnectionProcessor) key.attachment();
+                try {
+                    conn.ready(key);
+                } catch (RuntimeException e) {
+                    abort(conn, e);
+                }
+            }
+            selector.selectedKeys().clear();
+
+            now = SystemClock.uptimeMillis();
+            for (int i = active.size() - 1; i >= 0; i--) {
+                conn = active.get(i);
+                try {
+                    conn.tick(now);
+                } catch (RuntimeException e) {
+                    abort(conn, e);
+                }
+                if (conn.isFinished())
+                    active.remove(i);
+            }
+        }
+    }
+
+    // A bug in one connection, or in its listener, shouldn't take down
+    // the thread and every other connection with it
+    private static void abort(ViewerConnectionProcessor conn,
+            RuntimeException e) {
+        Log.e(TAG, "Viewer connection failed", e);
+        try {
+            conn.abort();
+        } catch (RuntimeException e2) {
+            Log.e(TAG, "Couldn't clean up viewer connection", e2);
+        }
+    }
+}
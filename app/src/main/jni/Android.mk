@@ -45,7 +45,6 @@ include $(CLEAR_VARS)
 LOCAL_MODULE    := spice
 
 LOCAL_SRC_FILES := android-io.c \
-                   android-socket.c \
                    android-spice.c \
                    android-spice-display.c
 
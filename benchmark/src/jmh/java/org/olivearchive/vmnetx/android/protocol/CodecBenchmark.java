@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.asdfa.msgpack.MsgPack;
+import net.asdfa.msgpack.MsgPackWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class CodecBenchmark {
+    @Param({"auth-ok", "startup-progress", "ping", "pong", "error"})
+    public String message;
+
+    private Map<String, Object> decoded;
+    private byte[] encoded;
+    private MsgPackWriter writer;
+    private BufferPool pool;
+
+    @Setup
+    public void setup() {
+        decoded = ControlMessages.get(message);
+        encoded = ControlMessages.encode(message);
+        writer = new MsgPackWriter(ByteBuffer.allocate(0));
+        pool = new BufferPool(512, 4);
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        return MsgPack.pack(decoded);
+    }
+
+    @Benchmark
+    public Object unpack() throws IOException {
+        return MsgPack.unpack(encoded, MsgPack.UNPACK_RAW_AS_STRING);
+    }
+
+    // Frame a message the way ProtocolEndpoint.transmit() does
+    @Benchmark
+    public int frame() {
+        writer.reset(pool.obtain());
+        int header = writer.reserveLength();
+        writer.pack(decoded);
+        writer.patchLength(header);
+        ByteBuffer frame = writer.getBuffer();
+        frame.flip();
+        int length = frame.remaining();
+        pool.recycle(frame);
+        return length;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.asdfa.msgpack.MsgPack;
+
+// Representative control messages, as the server sends them.
+final class ControlMessages {
+    private ControlMessages() {}
+
+    static Map<String, Object> get(String name) {
+        Map<String, Object> msg = new LinkedHashMap<String, Object>();
+        msg.put(RecvMessage.MTYPE_KEY, name);
+        if (name.equals("auth-ok")) {
+            msg.put("state", "stopped");
+            msg.put("name", "Windows 7 Professional");
+            msg.put("limit_mouse_rate", 30);
+            msg.put("server_timeout_min", 30);
+            msg.put("server_timeout_max", 60);
+        } else if (name.equals("startup-progress")) {
+            msg.put("fraction", 0.4375);
+        } else if (name.equals("error")) {
+            msg.put("message", "Couldn't connect to the virtual machine");
+        } else if (!name.equals("ping") && !name.equals("pong")) {
+            throw new IllegalArgumentException("Unknown message " + name);
+        }
+        return msg;
+    }
+
+    static byte[] encode(String name) {
+        return MsgPack.pack(get(name));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class RecvMessageBenchmark {
+    @Param({"auth-ok", "startup-progress", "ping", "pong", "error"})
+    public String message;
+
+    private ByteBuffer frame;
+
+    // Dispatch hands RecvMessage a read-only view of the receive buffer
+    @Setup
+    public void setup() {
+        frame = ByteBuffer.wrap(ControlMessages.encode(message)).asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public RecvMessage decode() throws ProtocolException {
+        return new RecvMessage(frame);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package android.os;
+
+// Stands in for the Android class so that protocol code compiles on the
+// JVM.  Tests deliver events through a MessageProcessor instead.
+public class Handler {
+    public final Message obtainMessage(int what, Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    public final boolean sendMessage(Message msg) {
+        throw new UnsupportedOperationException();
+    }
+}
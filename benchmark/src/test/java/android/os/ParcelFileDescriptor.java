@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package android.os;
+
+import java.net.Socket;
+
+// Stands in for the Android class so that protocol code runs on the JVM.
+// There is no way to take a descriptor from a JVM socket, so a made-up
+// one is returned; the caller closes the socket itself.
+public class ParcelFileDescriptor {
+    public static final int FAKE_FD = 1000;
+
+    public static ParcelFileDescriptor fromSocket(Socket socket) {
+        return new ParcelFileDescriptor();
+    }
+
+    public int detachFd() {
+        return FAKE_FD;
+    }
+}
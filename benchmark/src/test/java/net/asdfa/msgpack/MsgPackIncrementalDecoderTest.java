@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MsgPackIncrementalDecoderTest {
+	private static byte[] bytes(int... values) {
+		byte[] out = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			out[i] = (byte)values[i];
+		return out;
+	}
+
+	private static Object sample() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		List<Object> list = new ArrayList<Object>();
+		list.add(-5);
+		list.add(300);
+		list.add(1L << 40);
+		list.add(2.5);
+		list.add(null);
+		list.add(true);
+		map.put("_", "message");
+		map.put("list", list);
+		char[] text = new char[1000];
+		Arrays.fill(text, 'x');
+		map.put("text", new String(text));
+		map.put("empty", new LinkedHashMap<String, Object>());
+		return map;
+	}
+
+	@Test
+	public void byteAtATime() throws Exception {
+		byte[] data = MsgPack.pack(sample());
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(MsgPack.UNPACK_RAW_AS_STRING);
+		for (int i = 0; i < data.length - 1; i++) {
+			assertFalse(decoder.feed(ByteBuffer.wrap(data, i, 1)));
+			assertTrue(decoder.isPartial());
+		}
+		assertTrue(decoder.feed(ByteBuffer.wrap(data, data.length - 1, 1)));
+		assertEquals(MsgPack.unpack(data, MsgPack.UNPACK_RAW_AS_STRING), decoder.getValue());
+		assertFalse(decoder.isPartial());
+	}
+
+	@Test
+	public void stopsAtEndOfValue() throws Exception {
+		ByteBuffer data = ByteBuffer.wrap(bytes(0x92, 1, 2, 0xc3));
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		assertTrue(decoder.feed(data));
+		assertEquals(Arrays.asList(1, 2), decoder.getValue());
+		assertEquals(1, data.remaining());
+		assertTrue(decoder.feed(data));
+		assertEquals(true, decoder.getValue());
+	}
+
+	@Test
+	public void withinLimit() throws Exception {
+		byte[] data = MsgPack.pack(sample());
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(MsgPack.UNPACK_RAW_AS_STRING);
+		decoder.setLimit(data.length);
+		assertTrue(decoder.feed(ByteBuffer.wrap(data)));
+		assertEquals(MsgPack.unpack(data, MsgPack.UNPACK_RAW_AS_STRING), decoder.getValue());
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void strLongerThanLimit() throws Exception {
+		//str32 of 2^30 bytes, within a 16 byte limit
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(16);
+		decoder.feed(ByteBuffer.wrap(bytes(0xdb, 0x40, 0, 0, 0)));
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void binLongerThanLimit() throws Exception {
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(8);
+		decoder.feed(ByteBuffer.wrap(bytes(0xc4, 7)));
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void arrayLongerThanLimit() throws Exception {
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(16);
+		decoder.feed(ByteBuffer.wrap(bytes(0xdd, 0, 0, 0, 12)));
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void mapLongerThanLimit() throws Exception {
+		//6 entries need at least 12 bytes but only 10 are left
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(15);
+		decoder.feed(ByteBuffer.wrap(bytes(0xdf, 0, 0, 0, 6)));
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void inputPastLimit() throws Exception {
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(2);
+		decoder.feed(ByteBuffer.wrap(bytes(0x93, 1, 2, 3)));
+	}
+
+	@Test
+	public void limitLiftedByGetValue() throws Exception {
+		MsgPackIncrementalDecoder decoder = new MsgPackIncrementalDecoder(0);
+		decoder.setLimit(3);
+		assertTrue(decoder.feed(ByteBuffer.wrap(bytes(0x92, 1, 2))));
+		decoder.getValue();
+		assertTrue(decoder.feed(ByteBuffer.wrap(bytes(0x94, 1, 2, 3, 4))));
+		assertEquals(Arrays.asList(1, 2, 3, 4), decoder.getValue());
+	}
+}
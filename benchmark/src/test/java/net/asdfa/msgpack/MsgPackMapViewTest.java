@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MsgPackMapViewTest {
+	private static MsgPackMapView view(Map<?, ?> map) throws Exception {
+		return new MsgPackMapView(ByteBuffer.wrap(MsgPack.pack(map)));
+	}
+
+	private static MsgPackMapView view(int... values) throws Exception {
+		byte[] out = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			out[i] = (byte)values[i];
+		return new MsgPackMapView(ByteBuffer.wrap(out));
+	}
+
+	@Test
+	public void lookups() throws Exception {
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		map.put("_", "auth-ok");
+		map.put("state", "running");
+		map.put("server_timeout_min", 30);
+		map.put("fraction", 0.4375);
+		map.put(7, "int key");
+		map.put("café", true);
+		MsgPackMapView view = view(map);
+		assertEquals(6, view.size());
+		assertEquals(30, view.reader("server_timeout_min").readInt());
+		assertEquals("running", view.reader("state").readString());
+		assertEquals(0.4375, view.reader("fraction").readDouble(), 0);
+		assertTrue(view.reader("café").readBoolean());
+		assertEquals("auth-ok", view.get("_", MsgPack.UNPACK_RAW_AS_STRING));
+		assertNull(view.reader("missing"));
+		assertFalse(view.containsKey("7"));
+	}
+
+	@Test
+	public void nestedValuesAreSkipped() throws Exception {
+		Map<Object, Object> inner = new LinkedHashMap<Object, Object>();
+		inner.put("a", 1);
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		map.put("nested", inner);
+		map.put("after", 2);
+		MsgPackMapView view = view(map);
+		assertEquals(2, view.reader("after").readInt());
+		assertEquals(1, ((Map<?, ?>)view.get("nested", 0)).size());
+	}
+
+	@Test
+	public void lastDuplicateWins() throws Exception {
+		MsgPackMapView view = view(0x82, 0xa1, 'k', 1, 0xa1, 'k', 2);
+		assertEquals(2, view.reader("k").readInt());
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void notAMap() throws Exception {
+		view(0x91, 0x01);
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void truncatedValue() throws Exception {
+		view(0x81, 0xa1, 'k', 0xa5, 'a');
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void sizeBeyondData() throws Exception {
+		view(0xdf, 0x7f, 0xff, 0xff, 0xff, 0xa1, 'k', 1);
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MsgPackReaderTest {
+	private static MsgPackReader reader(int... values) {
+		byte[] out = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			out[i] = (byte)values[i];
+		return new MsgPackReader(ByteBuffer.wrap(out));
+	}
+
+	private static MsgPackReader packed(Object item) {
+		return new MsgPackReader(ByteBuffer.wrap(MsgPack.pack(item)));
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void ext32LengthOverflow() throws Exception {
+		reader(0xc9, 0x7f, 0xff, 0xff, 0xff, 0x01, 0x00).readExtension();
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void ext32LengthOverflowViaUnpack() throws Exception {
+		MsgPack.unpack(new byte[] {(byte)0xc9, 0x7f, (byte)0xff,
+				(byte)0xff, (byte)0xff, 0x01, 0x00}, 0);
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void ext32Truncated() throws Exception {
+		reader(0xc9, 0, 0, 0, 4, 0x01, 0x00).readExtension();
+	}
+
+	@Test
+	public void ext8() throws Exception {
+		MsgPackReader in = reader(0xc7, 3, 0x05, 'a', 'b', 'c', 0xc0);
+		assertEquals(MsgPackReader.TYPE_EXTENSION, in.nextType());
+		MsgPackExtension ext = in.readExtension();
+		assertEquals(5, ext.getType());
+		assertEquals(3, ext.getData().remaining());
+		assertEquals(MsgPackReader.TYPE_NIL, in.nextType());
+	}
+
+	@Test
+	public void walkMapSkippingValues() throws Exception {
+		MsgPackReader in = reader(0x83, 0xa1, 'a', 0x92, 1, 2, 0xa1, 'b',
+				0x81, 0xa1, 'c', 0xc3, 0xa1, 'd', 0x2a);
+		assertEquals(3, in.readMapHeader());
+		assertEquals("a", in.readString());
+		in.skipValue();
+		assertEquals("b", in.readString());
+		in.skipValue();
+		assertEquals("d", in.readString());
+		assertEquals(42, in.readInt());
+	}
+
+	@Test
+	public void integersOfAnyWidth() throws Exception {
+		// fixnum, negative fixnum, uint8, uint16, uint32, int8, int16, int32
+		assertEquals(5, reader(0x05).readInt());
+		assertEquals(-3, reader(0xfd).readInt());
+		assertEquals(200, reader(0xcc, 200).readInt());
+		assertEquals(40000, reader(0xcd, 0x9c, 0x40).readInt());
+		assertEquals(30, reader(0xce, 0, 0, 0, 30).readInt());
+		assertEquals(-100, reader(0xd0, 0x9c).readInt());
+		assertEquals(-1000, reader(0xd1, 0xfc, 0x18).readInt());
+		assertEquals(-100000, reader(0xd2, 0xff, 0xfe, 0x79, 0x60).readInt());
+		assertEquals(1L << 40, reader(0xcf, 0, 0, 1, 0, 0, 0, 0, 0).readLong());
+		assertEquals(-(1L << 40), reader(0xd3, 0xff, 0xff, 0xff, 0, 0, 0, 0, 0).readLong());
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void intOutOfRange() throws Exception {
+		reader(0xce, 0x80, 0, 0, 0).readInt();
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void uint64OutOfRange() throws Exception {
+		reader(0xcf, 0x80, 0, 0, 0, 0, 0, 0, 0).readLong();
+	}
+
+	@Test
+	public void doubles() throws Exception {
+		assertEquals(0.4375, packed(0.4375).readDouble(), 0);
+		assertEquals(0.5, packed(0.5f).readDouble(), 0);
+		// Whole numbers may be packed as integers
+		assertEquals(1.0, packed(1).readDouble(), 0);
+	}
+
+	@Test
+	public void booleans() throws Exception {
+		assertTrue(reader(0xc3).readBoolean());
+		assertFalse(reader(0xc2).readBoolean());
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void typeMismatch() throws Exception {
+		packed("text").readInt();
+	}
+
+	@Test(expected = InvalidMsgPackDataException.class)
+	public void truncatedString() throws Exception {
+		reader(0xa5, 'a', 'b').readString();
+	}
+}
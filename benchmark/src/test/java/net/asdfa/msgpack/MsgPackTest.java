@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MsgPackTest {
+	private static byte[] bytes(int... values) {
+		byte[] out = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			out[i] = (byte)values[i];
+		return out;
+	}
+
+	@Test
+	public void uint64AboveLongRange() throws Exception {
+		byte[] data = bytes(0xcf, 0x80, 0, 0, 0, 0, 0, 0, 5);
+		BigInteger expected = new BigInteger("9223372036854775813");
+		assertEquals(expected, MsgPack.unpack(data));
+		assertEquals(expected, MsgPack.unpack(ByteBuffer.wrap(data), 0));
+	}
+
+	@Test
+	public void uint64InLongRange() throws Exception {
+		byte[] data = bytes(0xcf, 0, 0, 0, 1, 0, 0, 0, 0);
+		assertEquals(1L << 32, MsgPack.unpack(data));
+	}
+
+	@Test
+	public void uint64Max() throws Exception {
+		byte[] data = bytes(0xcf, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff);
+		BigInteger expected = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		assertEquals(expected, MsgPack.unpack(data));
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		Map<String, Object> msg = new LinkedHashMap<String, Object>();
+		msg.put("_", "auth-ok");
+		msg.put("name", "Windows 7 Professional");
+		msg.put("server_timeout_min", 30);
+		msg.put("fraction", 0.4375);
+		byte[] data = MsgPack.pack(msg);
+		Object fromBytes = MsgPack.unpack(data, MsgPack.UNPACK_RAW_AS_STRING);
+		assertEquals(msg, fromBytes);
+	}
+
+	@Test
+	public void rawIsSliceOfInput() throws Exception {
+		ByteBuffer buf = ByteBuffer.wrap(MsgPack.pack("token"));
+		Object raw = MsgPack.unpack(buf, MsgPack.UNPACK_RAW_AS_BYTE_BUFFER);
+		assertTrue(raw instanceof ByteBuffer);
+		ByteBuffer slice = (ByteBuffer)raw;
+		assertTrue(slice.isReadOnly());
+		assertEquals(5, slice.remaining());
+		assertEquals('t', slice.get(slice.position()));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MsgPackWriterTest {
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for (int i = 0; i < count; i++)
+			sb.append(c);
+		return sb.toString();
+	}
+
+	private static ByteBuffer pack(Object item, boolean revised) {
+		MsgPackWriter writer = new MsgPackWriter(ByteBuffer.allocate(4));
+		writer.setRevisedFormats(revised);
+		writer.pack(item);
+		ByteBuffer buf = writer.getBuffer();
+		buf.flip();
+		return buf;
+	}
+
+	private static int header(ByteBuffer buf) {
+		return buf.get(0) & 0xff;
+	}
+
+	@Test
+	public void originalFormatsByDefault() {
+		// str8 would be 0xd9, bin8 0xc4
+		assertEquals(0xa5, header(pack("token", false)));
+		assertEquals(0xda, header(pack(repeat('x', 40), false)));
+		assertEquals(0xda, header(pack(new byte[40], false)));
+		assertEquals(0xa3, header(pack(new byte[3], false)));
+	}
+
+	@Test
+	public void revisedFormats() {
+		assertEquals(0xa5, header(pack("token", true)));
+		ByteBuffer buf = pack(repeat('x', 40), true);
+		assertEquals(0xd9, header(buf));
+		assertEquals(42, buf.remaining());
+		assertEquals(0xc4, header(pack(new byte[3], true)));
+		assertEquals(0xc5, header(pack(new byte[300], true)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void extensionNeedsRevisedFormats() {
+		pack(new MsgPackExtension((byte)1, ByteBuffer.wrap(new byte[4])), false);
+	}
+
+	@Test
+	public void extensionRoundTrip() throws Exception {
+		int[] sizes = {1, 2, 3, 4, 8, 16, 17, 300, 70000};
+		int[] headers = {0xd4, 0xd5, 0xc7, 0xd6, 0xd7, 0xd8, 0xc7, 0xc8, 0xc9};
+		for (int i = 0; i < sizes.length; i++) {
+			byte[] data = new byte[sizes[i]];
+			data[sizes[i] - 1] = 42;
+			ByteBuffer buf = pack(new MsgPackExtension((byte)7,
+					ByteBuffer.wrap(data)), true);
+			assertEquals(headers[i], header(buf));
+			MsgPackExtension ext = new MsgPackReader(buf).readExtension();
+			assertEquals(7, ext.getType());
+			assertEquals(ByteBuffer.wrap(data), ext.getData());
+		}
+	}
+
+	@Test
+	public void defaultMatchesMsgPackPack() {
+		String value = repeat('y', 100);
+		assertEquals(ByteBuffer.wrap(MsgPack.pack(value)), pack(value, false));
+	}
+
+	@Test
+	public void stringsRoundTrip() throws Exception {
+		String[] values = {"", "a", repeat('b', 31), repeat('c', 32),
+				repeat('d', 255), repeat('e', 256), repeat('f', 70000),
+				"café ☃ 😀"};
+		for (boolean revised : new boolean[] {false, true}) {
+			for (String value : values)
+				assertEquals(value, new MsgPackReader(pack(value, revised)).readString());
+		}
+	}
+
+	@Test
+	public void integersUseSmallestHeader() throws Exception {
+		long[] values = {0, 127, 128, 255, 256, 65535, 65536,
+				0xffffffffL, 0x100000000L, Long.MAX_VALUE,
+				-1, -32, -33, -128, -129, -32768, -32769,
+				Integer.MIN_VALUE, Integer.MIN_VALUE - 1L, Long.MIN_VALUE};
+		int[] sizes = {1, 1, 2, 2, 3, 3, 5, 5, 9, 9,
+				1, 1, 2, 2, 3, 3, 5, 5, 9, 9};
+		for (int i = 0; i < values.length; i++) {
+			ByteBuffer buf = pack(values[i], false);
+			assertEquals("size of " + values[i], sizes[i], buf.remaining());
+			assertEquals(values[i], new MsgPackReader(buf).readLong());
+		}
+	}
+
+	@Test
+	public void lengthPrefix() throws Exception {
+		MsgPackWriter writer = new MsgPackWriter(ByteBuffer.allocate(2));
+		int offset = writer.reserveLength();
+		writer.packMapHeader(1);
+		writer.packString("_");
+		writer.packString("ping");
+		writer.patchLength(offset);
+		ByteBuffer buf = writer.getBuffer();
+		buf.flip();
+		assertEquals(buf.remaining() - 4, buf.getInt());
+		MsgPackReader in = new MsgPackReader(buf);
+		assertEquals(1, in.readMapHeader());
+		assertEquals("_", in.readString());
+		assertEquals("ping", in.readString());
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2026 Carnegie Mellon University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.asdfa.msgpack;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StringCacheTest {
+	private static String decode(Object item, StringCache strings) throws Exception {
+		return new MsgPackReader(ByteBuffer.wrap(MsgPack.pack(item)), strings).readString();
+	}
+
+	@Test
+	public void seededStringIsReturned() throws Exception {
+		StringCache strings = new StringCache(64, 32);
+		String literal = "server_timeout_min";
+		strings.add(literal);
+		assertSame(literal, decode("server_timeout_min", strings));
+	}
+
+	@Test
+	public void repeatedStringIsShared() throws Exception {
+		StringCache strings = new StringCache(64, 32);
+		String first = decode("startup-progress", strings);
+		assertSame(first, decode("startup-progress", strings));
+	}
+
+	@Test
+	public void longStringIsNotCached() throws Exception {
+		StringCache strings = new StringCache(64, 8);
+		String first = decode("longer than eight bytes", strings);
+		String second = decode("longer than eight bytes", strings);
+		assertEquals(first, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void collisionsStayCorrect() throws Exception {
+		// With one slot, every string collides
+		StringCache strings = new StringCache(1, 32);
+		assertEquals("a", decode("a", strings));
+		assertEquals("b", decode("b", strings));
+		assertEquals("a", decode("a", strings));
+	}
+
+	@Test
+	public void multibyte() throws Exception {
+		StringCache strings = new StringCache(64, 32);
+		assertEquals("café", decode("café", strings));
+		assertEquals("café", decode("café", strings));
+	}
+}
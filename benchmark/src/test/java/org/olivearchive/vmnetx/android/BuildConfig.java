@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android;
+
+// Stands in for the class generated by the Android build, with the
+// default configuration.  The build options aren't final, so that tests
+// can turn them on.
+public final class BuildConfig {
+    public static final boolean DEBUG = true;
+    public static boolean STARTUP_PIPELINE = false;
+    public static boolean VIEWER_PIPELINE = false;
+    public static boolean STANDBY_POOL = false;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeepaliveSchedulerTest {
+    // Advances the clock in steps, polling whenever the scheduler asks
+    // to be; returns the time of the first result other than WAIT
+    private static long runUntil(KeepaliveScheduler k, long now, int result) {
+        for (int i = 0; i < 1000; i++) {
+            now += k.getDelay(now);
+            int r = k.poll(now);
+            if (r == result)
+                return now;
+            if (r != KeepaliveScheduler.WAIT && r != KeepaliveScheduler.PING)
+                fail("unexpected result " + r);
+        }
+        fail("never reached " + result);
+        return -1;
+    }
+
+    @Test
+    public void defaultsBeforeAuth() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        assertEquals(3000, k.getRetransmitTimeout());
+        // 12 s detection budget less three probes
+        assertEquals(3000, k.getIdleInterval());
+    }
+
+    @Test
+    public void intervalFromServerTimeout() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.setServerTimeout(60);
+        assertEquals(30000 - 3 * 3000, k.getIdleInterval());
+        k.setServerTimeout(0);
+        assertEquals(3000, k.getIdleInterval());
+    }
+
+    @Test
+    public void rtoFromRoundTrips() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.onRoundTrip(100);
+        // srtt + 4 * rttvar = 100 + 200, raised to the minimum
+        assertEquals(500, k.getRetransmitTimeout());
+        KeepaliveScheduler slow = new KeepaliveScheduler();
+        slow.onRoundTrip(1000);
+        assertEquals(3000, slow.getRetransmitTimeout());
+        slow.onRoundTrip(5000);
+        assertEquals(5000, slow.getRetransmitTimeout());
+    }
+
+    @Test
+    public void trafficSuppressesPings() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.setServerTimeout(60);
+        k.reset(0);
+        for (long now = 1000; now < 600000; now += 1000) {
+            k.onInbound(now);
+            assertEquals(KeepaliveScheduler.WAIT, k.poll(now));
+        }
+    }
+
+    @Test
+    public void deadWithinHalfTheServerTimeout() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.setServerTimeout(60);
+        k.onRoundTrip(100);
+        k.reset(0);
+        long firstPing = runUntil(k, 0, KeepaliveScheduler.PING);
+        assertEquals(k.getIdleInterval(), firstPing);
+        long dead = runUntil(k, firstPing, KeepaliveScheduler.DEAD);
+        assertEquals(firstPing + KeepaliveScheduler.PROBES * 500, dead);
+        assertTrue(dead <= 30000);
+    }
+
+    @Test
+    public void replyCancelsProbing() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.reset(0);
+        long ping = runUntil(k, 0, KeepaliveScheduler.PING);
+        k.onInbound(ping + 100);
+        assertEquals(KeepaliveScheduler.WAIT, k.poll(ping + 200));
+        assertEquals(k.getIdleInterval() - 100, k.getDelay(ping + 200));
+    }
+
+    @Test
+    public void lateReplyProbesAtRtoSpacing() {
+        KeepaliveScheduler k = new KeepaliveScheduler();
+        k.reset(0);
+        long ping = runUntil(k, 0, KeepaliveScheduler.PING);
+        assertEquals(k.getRetransmitTimeout(), k.getDelay(ping));
+        assertEquals(KeepaliveScheduler.WAIT, k.poll(ping + 1));
+        assertEquals(KeepaliveScheduler.PING,
+                k.poll(ping + k.getRetransmitTimeout()));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void empty() {
+        LatencyHistogram.Summary s = new LatencyHistogram().getSummary();
+        assertEquals(0, s.count);
+        assertEquals(0, s.maxUs);
+    }
+
+    @Test
+    public void percentilesWithinBucketError() {
+        LatencyHistogram h = new LatencyHistogram();
+        // 1..1000 ms
+        for (int i = 1; i <= 1000; i++)
+            h.record(i * 1000L);
+        LatencyHistogram.Summary s = h.getSummary();
+        assertEquals(1000, s.count);
+        assertEquals(1000, s.minUs);
+        assertEquals(1000000, s.maxUs);
+        assertEquals(500000, s.p50Us, 500000 * 0.07);
+        assertEquals(990000, s.p99Us, 990000 * 0.07);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 10; i++)
+            h.record(7);
+        LatencyHistogram.Summary s = h.getSummary();
+        assertEquals(7, s.minUs);
+        assertEquals(7, s.p50Us);
+        assertEquals(7, s.p99Us);
+        assertEquals(0, s.jitterUs, 0);
+    }
+
+    @Test
+    public void percentilesStayWithinMinAndMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(100003);
+        LatencyHistogram.Summary s = h.getSummary();
+        assertEquals(100003, s.p50Us);
+        assertEquals(100003, s.p99Us);
+    }
+
+    @Test
+    public void jitterFollowsRfc3550() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(1600);
+        // |1600 - 0| / 16
+        assertEquals(100, h.getSummary().jitterUs, 1e-9);
+        h.record(0);
+        assertEquals(100 + (1600 - 100) / 16.0, h.getSummary().jitterUs, 1e-9);
+    }
+
+    @Test
+    public void outOfRangeSamplesAreClamped() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        LatencyHistogram.Summary s = h.getSummary();
+        assertEquals(0, s.minUs);
+        assertEquals((1L << 36) - 1, s.maxUs);
+    }
+}
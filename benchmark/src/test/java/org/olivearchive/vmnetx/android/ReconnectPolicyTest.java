@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+    @Test
+    public void firstRetryIsImmediate() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        assertFalse(p.isFailing());
+        assertEquals(0, p.failed(1000));
+        assertTrue(p.isFailing());
+    }
+
+    @Test
+    public void delayCapDoublesUpToMaximum() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        p.failed(0);
+        long cap = 500;
+        for (int i = 0; i < 20; i++) {
+            long delay = p.failed(0);
+            assertTrue(delay >= 0);
+            assertTrue("delay " + delay + " over " + cap, delay <= cap);
+            cap = Math.min(cap * 2, 30000);
+        }
+    }
+
+    @Test
+    public void givesUpAtDeadline() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        p.setDeadline(10);
+        assertEquals(0, p.failed(0));
+        for (int i = 0; i < 100; i++)
+            assertTrue(p.failed(9000) <= 1000);
+        assertEquals(ReconnectPolicy.GIVE_UP, p.failed(10000));
+        assertFalse(p.isFailing());
+        ReconnectPolicy.Stats stats = p.getStats();
+        assertEquals(1, stats.outages);
+        assertEquals(1, stats.failures);
+        assertEquals(0, stats.recoveries);
+        assertEquals(101, stats.attempts);
+    }
+
+    @Test
+    public void deadlineCountsFromOutageStart() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        p.setDeadline(10);
+        p.startOutage(0);
+        // Starting again during an outage has no effect
+        p.startOutage(5000);
+        assertEquals(ReconnectPolicy.GIVE_UP, p.failed(10000));
+        assertEquals(1, p.getStats().outages);
+    }
+
+    @Test
+    public void recoveryStats() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        // Success outside an outage isn't a recovery
+        p.succeeded(0);
+        assertEquals(0, p.getStats().recoveries);
+
+        p.startOutage(1000);
+        p.failed(1500);
+        p.succeeded(3000);
+        assertFalse(p.isFailing());
+        p.failed(10000);
+        p.succeeded(16000);
+
+        ReconnectPolicy.Stats stats = p.getStats();
+        assertEquals(2, stats.outages);
+        assertEquals(2, stats.recoveries);
+        assertEquals(0, stats.failures);
+        assertEquals(2, stats.attempts);
+        assertEquals(6000, stats.lastRecoveryMs);
+        assertEquals(4000, stats.meanRecoveryMs);
+        assertEquals(6000, stats.maxRecoveryMs);
+    }
+
+    @Test
+    public void retriesRestartAfterRecovery() {
+        ReconnectPolicy p = new ReconnectPolicy();
+        p.failed(0);
+        for (int i = 0; i < 10; i++)
+            p.failed(0);
+        p.succeeded(0);
+        assertEquals(0, p.failed(0));
+    }
+}
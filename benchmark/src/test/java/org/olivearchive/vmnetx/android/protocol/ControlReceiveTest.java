@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.asdfa.msgpack.MsgPack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.olivearchive.vmnetx.android.Constants;
+
+import static org.junit.Assert.*;
+
+// Frames larger than the receive buffer are decoded as they arrive
+public class ControlReceiveTest {
+    private static final long TIMEOUT = 5000;
+
+    private ServerSocket listener;
+    private ControlConnectionProcessor conn;
+    private final BlockingQueue<Object[]> events =
+            new LinkedBlockingQueue<Object[]>();
+
+    @Before
+    public void setUp() throws IOException {
+        listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        conn = new ControlConnectionProcessor(
+                listener.getInetAddress().getHostAddress(),
+                listener.getLocalPort());
+        new ClientProtocolEndpoint(conn,
+                new ProtocolEndpoint.MessageProcessor() {
+            @Override
+            public void processMessage(int what, Object event) {
+                events.add(new Object[] {what, event});
+            }
+        });
+        new Thread(conn).start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        conn.close();
+        listener.close();
+    }
+
+    private static byte[] error(String message) throws IOException {
+        Map<String, Object> msg = new LinkedHashMap<String, Object>();
+        msg.put("_", "error");
+        msg.put("message", message);
+        return MsgPack.pack(msg);
+    }
+
+    private static String text(int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, 'x');
+        return new String(text);
+    }
+
+    // Writes a frame in small pieces, so that it arrives over many reads
+    private static void send(DataOutputStream out, int length, byte[] data)
+            throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < data.length; i += 1000) {
+            out.write(data, i, Math.min(1000, data.length - i));
+            out.flush();
+        }
+    }
+
+    private Object[] nextEvent() throws InterruptedException {
+        while (true) {
+            Object[] event = events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull("timed out waiting for event", event);
+            if ((Integer) event[0] != Constants.PROTOCOL_CONNECTED)
+                return event;
+        }
+    }
+
+    private String nextError() throws InterruptedException {
+        Object[] event = nextEvent();
+        assertEquals(Constants.PROTOCOL_ERROR, event[0]);
+        return ((Messages.ServerError) event[1]).message;
+    }
+
+    private void assertDisconnected() throws InterruptedException {
+        assertEquals(Constants.PROTOCOL_DISCONNECTED, nextEvent()[0]);
+    }
+
+    @Test
+    public void largeThenSmall() throws Exception {
+        Socket socket = listener.accept();
+        try {
+            DataOutputStream out =
+                    new DataOutputStream(socket.getOutputStream());
+            String large = text(200000);
+            byte[] data = error(large);
+            send(out, data.length, data);
+            data = error("small");
+            send(out, data.length, data);
+            assertEquals(large, nextError());
+            assertEquals("small", nextError());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void lengthClaimPastFrame() throws Exception {
+        Socket socket = listener.accept();
+        try {
+            DataOutputStream out =
+                    new DataOutputStream(socket.getOutputStream());
+            // The message string claims 2^30 bytes of an 8 KiB frame
+            byte[] head = error("");
+            byte[] data = new byte[8192];
+            System.arraycopy(head, 0, data, 0, head.length);
+            int str = head.length - 1;
+            data[str] = (byte) 0xdb;
+            data[str + 1] = 0x40;
+            send(out, data.length, data);
+            assertDisconnected();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void frameLongerThanMessage() throws Exception {
+        Socket socket = listener.accept();
+        try {
+            DataOutputStream out =
+                    new DataOutputStream(socket.getOutputStream());
+            byte[] head = error(text(5000));
+            byte[] data = Arrays.copyOf(head, head.length + 1);
+            send(out, data.length, data);
+            assertDisconnected();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.olivearchive.vmnetx.android.BuildConfig;
+import org.olivearchive.vmnetx.android.Constants;
+
+import static org.junit.Assert.*;
+
+public class ResumeTest {
+    private static final long TIMEOUT = 5000;
+
+    private StandInServer server;
+
+    // Drives a control connection as SessionController does: resumes if
+    // given a ticket, and authenticates if that fails
+    private class ControlClient implements ProtocolEndpoint.MessageProcessor {
+        private final String ticket;
+        private final ControlConnectionProcessor conn;
+        private final ClientProtocolEndpoint endpoint;
+        private final BlockingQueue<Integer> events =
+                new LinkedBlockingQueue<Integer>();
+        private volatile Messages.AuthOk authOk;
+
+        ControlClient(String ticket) throws IOException {
+            this.ticket = ticket;
+            conn = new ControlConnectionProcessor(server.getHost(),
+                    server.getPort());
+            endpoint = new ClientProtocolEndpoint(conn, this);
+            new Thread(conn).start();
+        }
+
+        @Override
+        public void processMessage(int what, Object event) {
+            switch (what) {
+            case Constants.PROTOCOL_CONNECTED:
+                if (ticket != null)
+                    endpoint.sendResume(ticket, false);
+                else
+                    endpoint.sendAuthenticate(StandInServer.TOKEN);
+                break;
+            case Constants.CLIENT_PROTOCOL_RESUME_FAILED:
+                endpoint.sendAuthenticate(StandInServer.TOKEN);
+                break;
+            case Constants.CLIENT_PROTOCOL_AUTH_OK:
+                authOk = (Messages.AuthOk) event;
+                break;
+            }
+            events.add(what);
+        }
+
+        // Waits for auth-ok, returning whether resume failed first
+        boolean awaitAuthOk() throws InterruptedException {
+            boolean resumeFailed = false;
+            while (true) {
+                Integer what = events.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+                assertNotNull("timed out waiting for auth-ok", what);
+                switch (what) {
+                case Constants.CLIENT_PROTOCOL_AUTH_OK:
+                    return resumeFailed;
+                case Constants.CLIENT_PROTOCOL_RESUME_FAILED:
+                    resumeFailed = true;
+                    break;
+                case Constants.CLIENT_PROTOCOL_AUTH_FAILED:
+                case Constants.PROTOCOL_ERROR:
+                case Constants.PROTOCOL_DISCONNECTED:
+                    fail("unexpected event " + what);
+                }
+            }
+        }
+
+        void close() {
+            conn.close();
+        }
+    }
+
+    private static class ViewerResult
+            implements ViewerConnectionProcessor.Listener {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int fd = -1;
+
+        @Override
+        public void onViewerConnected(int fd) {
+            this.fd = fd;
+            done.countDown();
+        }
+
+        @Override
+        public void onViewerFailed() {
+            done.countDown();
+        }
+
+        int await() throws InterruptedException {
+            assertTrue("timed out waiting for viewer",
+                    done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            return fd;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void controlResumeAccepted() throws Exception {
+        ControlClient client = new ControlClient(server.issueTicket());
+        try {
+            assertFalse(client.awaitAuthOk());
+            assertEquals(Arrays.asList("resume"), server.getReceived());
+            assertEquals(Constants.VM_STATE_RUNNING, client.authOk.vmState);
+            assertNotNull(client.authOk.resumeTicket);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void controlResumeRejected() throws Exception {
+        ControlClient client = new ControlClient("expired");
+        try {
+            assertTrue(client.awaitAuthOk());
+            assertEquals(Arrays.asList("resume", "authenticate"),
+                    server.getReceived());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void controlResumesWithIssuedTicket() throws Exception {
+        ControlClient first = new ControlClient(null);
+        String ticket;
+        try {
+            first.awaitAuthOk();
+            ticket = first.authOk.resumeTicket;
+        } finally {
+            first.close();
+        }
+        ControlClient second = new ControlClient(ticket);
+        try {
+            assertFalse(second.awaitAuthOk());
+        } finally {
+            second.close();
+        }
+        assertEquals(Arrays.asList("authenticate", "resume"),
+                server.getReceived());
+    }
+
+    @Test
+    public void viewerResumeAccepted() throws Exception {
+        ViewerResult result = new ViewerResult();
+        new ViewerConnectionProcessor(server.getHost(), server.getPort(),
+                StandInServer.TOKEN, server.issueTicket()).connect(result);
+        assertEquals(ParcelFileDescriptor.FAKE_FD, result.await());
+        // Attached in a single message
+        assertEquals(Arrays.asList("resume"), server.getReceived());
+    }
+
+    @Test
+    public void viewerResumeRejected() throws Exception {
+        ViewerResult result = new ViewerResult();
+        new ViewerConnectionProcessor(server.getHost(), server.getPort(),
+                StandInServer.TOKEN, "expired").connect(result);
+        assertEquals(ParcelFileDescriptor.FAKE_FD, result.await());
+        assertEquals(Arrays.asList("resume", "authenticate", "attach-viewer"),
+                server.getReceived());
+    }
+
+    @Test
+    public void viewerResumeRejectedPipelined() throws Exception {
+        // Attaches only if attach-viewer goes out behind authenticate
+        server.setRequirePipelining(true);
+        BuildConfig.VIEWER_PIPELINE = true;
+        try {
+            ViewerResult result = new ViewerResult();
+            new ViewerConnectionProcessor(server.getHost(), server.getPort(),
+                    StandInServer.TOKEN, "expired").connect(result);
+            assertEquals(ParcelFileDescriptor.FAKE_FD, result.await());
+        } finally {
+            BuildConfig.VIEWER_PIPELINE = false;
+        }
+        assertEquals(Arrays.asList("resume", "authenticate", "attach-viewer"),
+                server.getReceived());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2026 Carnegie Mellon University
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of version 2 of the GNU General Public License as published
+ * by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+
+package org.olivearchive.vmnetx.android.protocol;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.asdfa.msgpack.MsgPack;
+
+// Stands in for a VMNetX server with a running VM, speaking enough of the
+// control protocol to authenticate, resume and attach viewers.  Every
+// auth-ok carries a resume ticket.  Each connection is served on a thread
+// of its own, and ends once a viewer is attached.
+//
+// With setRequirePipelining(), auth-ok for an authenticate is held back
+// until attach-viewer arrives, so only a client that pipelines
+// attach-viewer behind authenticate can attach.
+class StandInServer implements Closeable {
+    static final String TOKEN = "token";
+
+    private final ServerSocket listener;
+    private final Set<String> tickets =
+            Collections.synchronizedSet(new HashSet<String>());
+    private final List<String> received =
+            Collections.synchronizedList(new ArrayList<String>());
+    private int nextTicket = 0;
+    private volatile boolean requirePipelining = false;
+
+    StandInServer() throws IOException {
+        listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StandInServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getHost() {
+        return listener.getInetAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return listener.getLocalPort();
+    }
+
+    // Issues a ticket, as auth-ok in an earlier session would have
+    synchronized String issueTicket() {
+        String ticket = "ticket-" + Integer.toString(nextTicket++);
+        tickets.add(ticket);
+        return ticket;
+    }
+
+    void setRequirePipelining(boolean requirePipelining) {
+        this.requirePipelining = requirePipelining;
+    }
+
+    // Message types received so far, on all connections
+    List<String> getReceived() {
+        synchronized (received) {
+            return new ArrayList<String>(received);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // Client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {}
+                    }
+                }
+            }, "StandInServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        boolean authOkHeld = false;
+        while (true) {
+            byte[] data;
+            try {
+                data = new byte[in.readInt()];
+            } catch (EOFException e) {
+                return;
+            }
+            in.readFully(data);
+            Map<?, ?> msg = (Map<?, ?>) MsgPack.unpack(data,
+                    MsgPack.UNPACK_RAW_AS_STRING);
+            String mtype = (String) msg.get("_");
+            received.add(mtype);
+
+            if (mtype.equals("authenticate")) {
+                if (!TOKEN.equals(msg.get("token")))
+                    send(out, message("auth-failed", "error", "Bad token"));
+                else if (requirePipelining)
+                    authOkHeld = true;
+                else
+                    sendAuthOk(out);
+            } else if (mtype.equals("resume")) {
+                if (!tickets.contains(msg.get("ticket"))) {
+                    send(out, message("auth-failed", "error", "Unknown ticket"));
+                    continue;
+                }
+                sendAuthOk(out);
+                if (Boolean.TRUE.equals(msg.get("attach_viewer"))) {
+                    send(out, message("attaching-viewer"));
+                    return;
+                }
+            } else if (mtype.equals("attach-viewer")) {
+                if (authOkHeld)
+                    sendAuthOk(out);
+                send(out, message("attaching-viewer"));
+                return;
+            } else if (mtype.equals("ping")) {
+                send(out, message("pong"));
+            } else {
+                send(out, message("error", "message", "Unexpected " + mtype));
+            }
+        }
+    }
+
+    private void sendAuthOk(DataOutputStream out) throws IOException {
+        send(out, message("auth-ok", "state", "running", "name", "Stand-in",
+                "resume_ticket", issueTicket()));
+    }
+
+    private static Map<String, Object> message(String mtype,
+            Object... keysAndValues) {
+        Map<String, Object> msg = new HashMap<String, Object>();
+        msg.put("_", mtype);
+        for (int i = 0; i < keysAndValues.length; i += 2)
+            msg.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return msg;
+    }
+
+    private static void send(DataOutputStream out, Map<String, Object> msg)
+            throws IOException {
+        byte[] data = MsgPack.pack(msg);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+}